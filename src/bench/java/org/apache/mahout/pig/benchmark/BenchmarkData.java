@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.benchmark;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.pig.PigVector;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic but realistically shaped data for the benchmarks.
+ * <p/>
+ * Rows come in three shapes.  Numeric rows have a number of continuous fields.  Categorical rows
+ * have word fields with vocabularies of very different sizes.  Text rows have a long text field
+ * whose words follow a Zipf distribution, as words in real text do, plus a numeric and a word
+ * field.  Each shape comes with a schema and formula for EncodeVector.
+ * <p/>
+ * Everything is generated from a fixed seed so that runs can be compared with each other.
+ */
+class BenchmarkData {
+    static final long SEED = 1;
+
+    private static final TupleFactory TUPLES = TupleFactory.getInstance();
+
+    private BenchmarkData() {
+    }
+
+    enum Shape {
+        NUMERIC, CATEGORICAL, TEXT
+    }
+
+    /**
+     * Rows of the given shape and the schema and formula that encode them.
+     */
+    static class Rows {
+        final Tuple[] rows;
+        final String schema;
+        final String formula;
+
+        private Rows(Tuple[] rows, String schema, String formula) {
+            this.rows = rows;
+            this.schema = schema;
+            this.formula = formula;
+        }
+    }
+
+    static Rows rows(Shape shape, int n) throws IOException {
+        Random gen = new Random(SEED);
+        switch (shape) {
+            case NUMERIC:
+                return numericRows(gen, n, 20);
+            case CATEGORICAL:
+                return categoricalRows(gen, n);
+            case TEXT:
+                return textRows(gen, n, 300);
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+    }
+
+    /**
+     * Rows of normally distributed numbers with widely varying scales.
+     */
+    static Rows numericRows(Random gen, int n, int fields) throws IOException {
+        Tuple[] rows = new Tuple[n];
+        for (int i = 0; i < n; i++) {
+            Tuple t = TUPLES.newTuple(fields);
+            for (int j = 0; j < fields; j++) {
+                t.set(j, gen.nextGaussian() * Math.pow(10, j % 7 - 3));
+            }
+            rows[i] = t;
+        }
+
+        List<String> schema = Lists.newArrayList();
+        List<String> formula = Lists.newArrayList("1");
+        for (int j = 0; j < fields; j++) {
+            schema.add("x" + j + ":numeric");
+            formula.add("x" + j);
+        }
+        return new Rows(rows, Joiner.on(", ").join(schema), Joiner.on("+").join(formula));
+    }
+
+    /**
+     * Rows with word fields drawn from vocabularies of 10 to 100,000 values.
+     */
+    static Rows categoricalRows(Random gen, int n) throws IOException {
+        int[] cardinality = {10, 50, 1000, 20000, 100000};
+        String[] prefix = {"state", "device", "city", "product", "user"};
+        Tuple[] rows = new Tuple[n];
+        for (int i = 0; i < n; i++) {
+            Tuple t = TUPLES.newTuple(cardinality.length);
+            for (int j = 0; j < cardinality.length; j++) {
+                t.set(j, prefix[j] + zipf(gen, cardinality[j]));
+            }
+            rows[i] = t;
+        }
+
+        List<String> schema = Lists.newArrayList();
+        List<String> formula = Lists.newArrayList("1");
+        for (String name : prefix) {
+            schema.add(name + ":word");
+            formula.add(name);
+        }
+        return new Rows(rows, Joiner.on(", ").join(schema), Joiner.on("+").join(formula));
+    }
+
+    /**
+     * Rows with a long text field, a number and a word.
+     */
+    static Rows textRows(Random gen, int n, int words) throws IOException {
+        Tuple[] rows = new Tuple[n];
+        for (int i = 0; i < n; i++) {
+            Tuple t = TUPLES.newTuple(3);
+            t.set(0, gen.nextGaussian());
+            t.set(1, "w" + zipf(gen, 100));
+            t.set(2, text(gen, words));
+            rows[i] = t;
+        }
+        return new Rows(rows, "x:numeric, w:word, t:text", "1+x+w+t");
+    }
+
+    /**
+     * Generates text of synthetic words from a 50,000 word vocabulary with a Zipf distribution.
+     */
+    static String text(Random gen, int words) {
+        StringBuilder r = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            r.append(word(zipf(gen, 50000)));
+            r.append(gen.nextInt(12) == 0 ? ", " : " ");
+        }
+        return r.toString();
+    }
+
+    /**
+     * Returns encoded training examples as (target, vector) tuples.  The target depends on a
+     * random linear function of the features so that there is something to learn.
+     *
+     * @param categories The names of the categories.
+     * @param dimension  The size of the vectors.
+     * @param nonZeros   The number of non-zero elements in each vector.
+     */
+    static Tuple[] examples(Random gen, List<String> categories, int dimension, int nonZeros, int n) throws IOException {
+        Vector beta = new DenseVector(dimension);
+        for (int i = 0; i < dimension; i++) {
+            beta.set(i, gen.nextGaussian());
+        }
+
+        Tuple[] r = new Tuple[n];
+        for (int i = 0; i < n; i++) {
+            Vector v = vector(gen, dimension, nonZeros);
+            double score = v.dot(beta);
+            int target = Math.min(categories.size() - 1, (int) (categories.size() / (1 + Math.exp(-score))));
+
+            Tuple t = TUPLES.newTuple(2);
+            t.set(0, categories.get(target));
+            t.set(1, PigVector.toBytes(v));
+            r[i] = t;
+        }
+        return r;
+    }
+
+    /**
+     * Returns a vector with the given number of non-zero elements.  A vector with as many
+     * non-zeros as its size is dense.
+     */
+    static Vector vector(Random gen, int dimension, int nonZeros) {
+        Vector v = nonZeros >= dimension ? new DenseVector(dimension) : new RandomAccessSparseVector(dimension);
+        for (int i = 0; i < Math.min(nonZeros, dimension); i++) {
+            v.set(nonZeros >= dimension ? i : gen.nextInt(dimension), gen.nextGaussian());
+        }
+        return v;
+    }
+
+    /**
+     * Wraps tuples in a bag the way a group statement would present them to a UDF.
+     */
+    static Tuple bagOf(Tuple[] rows, int start, int n) throws IOException {
+        DataBag bag = BagFactory.getInstance().newDefaultBag();
+        for (int i = start; i < start + n; i++) {
+            bag.add(rows[i % rows.length]);
+        }
+        Tuple r = TUPLES.newTuple(1);
+        r.set(0, bag);
+        return r;
+    }
+
+    static DataByteArray[] encode(Vector[] vectors) {
+        DataByteArray[] r = new DataByteArray[vectors.length];
+        for (int i = 0; i < vectors.length; i++) {
+            r[i] = PigVector.toBytes(vectors[i]);
+        }
+        return r;
+    }
+
+    /**
+     * Samples from {0 .. n-1} with probability roughly proportional to 1 / (rank + 1).
+     */
+    private static int zipf(Random gen, int n) {
+        return (int) Math.min(n - 1, Math.floor(Math.exp(gen.nextDouble() * Math.log(n + 1)) - 1));
+    }
+
+    /**
+     * Spells a number as a pronounceable word so that common words are short.
+     */
+    private static String word(int k) {
+        String consonants = "bcdfghklmnprstvz";
+        String vowels = "aeiou";
+        StringBuilder r = new StringBuilder();
+        do {
+            r.append(consonants.charAt(k % consonants.length()));
+            k /= consonants.length();
+            r.append(vowels.charAt(k % vowels.length()));
+            k /= vowels.length();
+        } while (k > 0);
+        return r.toString();
+    }
+}
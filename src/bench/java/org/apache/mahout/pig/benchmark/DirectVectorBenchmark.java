@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.benchmark;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import org.apache.mahout.pig.encoders.DirectVector;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding numeric fields with DirectVector.  Fields hold either doubles, as they do
+ * after a cast in Pig, or the untyped byte arrays that a load function without a schema produces.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectVectorBenchmark {
+    private static final int ROWS = 1024;
+
+    @Param({"10", "100", "1000"})
+    public int fields;
+
+    @Param({"double", "bytes"})
+    public String type;
+
+    private Tuple[] rows;
+    private int row;
+
+    private DirectVector encoder;
+
+    @Setup
+    public void setup() throws IOException {
+        Random gen = new Random(BenchmarkData.SEED);
+        rows = new Tuple[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = TupleFactory.getInstance().newTuple(fields);
+            for (int j = 0; j < fields; j++) {
+                double x = gen.nextGaussian() * 100;
+                if ("bytes".equals(type)) {
+                    t.set(j, new DataByteArray(String.format("%.3f", x)));
+                } else {
+                    t.set(j, x);
+                }
+            }
+            rows[i] = t;
+        }
+
+        List<String> names = Lists.newArrayList();
+        for (int j = 0; j < fields; j++) {
+            names.add("x" + j);
+        }
+        encoder = new DirectVector(Joiner.on(",").join(names));
+    }
+
+    @Benchmark
+    public DataByteArray encode() throws IOException {
+        row = (row + 1) & (ROWS - 1);
+        return encoder.exec(rows[row]);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.benchmark;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.pig.PigVector;
+import org.apache.mahout.pig.encoders.EncodeVector;
+import org.apache.mahout.vectorizer.encoders.ConstantValueEncoder;
+import org.apache.mahout.vectorizer.encoders.ContinuousValueEncoder;
+import org.apache.mahout.vectorizer.encoders.FeatureVectorEncoder;
+import org.apache.mahout.vectorizer.encoders.StaticWordValueEncoder;
+import org.apache.mahout.vectorizer.encoders.TextValueEncoder;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding rows by building a vector with Mahout's encoders, which is what EncodeVector
+ * used to do, against the compiled encoding plan that EncodeVector now uses.  Rows are numeric,
+ * categorical or long text as generated by {@link BenchmarkData}.  Run with -prof gc to see the
+ * allocation rate per row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeVectorBenchmark {
+    private static final int ROWS = 1024;
+
+    @Param({"1000", "100000", "1000000"})
+    public int dimension;
+
+    @Param({"NUMERIC", "CATEGORICAL", "TEXT"})
+    public String shape;
+
+    private Tuple[] rows;
+    private int row;
+
+    private EncodeVector compiled;
+
+    private FeatureVectorEncoder bias;
+    private FeatureVectorEncoder[] fields;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkData.Rows data = BenchmarkData.rows(BenchmarkData.Shape.valueOf(shape), ROWS);
+        rows = data.rows;
+
+        compiled = new EncodeVector(Integer.toString(dimension), data.formula, data.schema);
+
+        bias = new ConstantValueEncoder("- bias -");
+        List<String> schema = Lists.newArrayList(Splitter.on(",").trimResults().split(data.schema));
+        fields = new FeatureVectorEncoder[schema.size()];
+        for (int i = 0; i < fields.length; i++) {
+            String[] field = schema.get(i).split(":");
+            if ("numeric".equals(field[1])) {
+                fields[i] = new ContinuousValueEncoder(field[0]);
+            } else if ("word".equals(field[1])) {
+                fields[i] = new StaticWordValueEncoder(field[0]);
+            } else {
+                fields[i] = new TextValueEncoder(field[0]);
+            }
+        }
+    }
+
+    @Benchmark
+    public DataByteArray legacy() throws IOException {
+        Tuple t = nextRow();
+        Vector r = new RandomAccessSparseVector(dimension);
+        bias.addToVector((byte[]) null, r);
+        for (int i = 0; i < fields.length; i++) {
+            fields[i].addToVector(t.get(i).toString(), r);
+        }
+        return PigVector.toWritableBytes(r);
+    }
+
+    @Benchmark
+    public DataByteArray compiled() throws IOException {
+        return compiled.exec(nextRow());
+    }
+
+    private Tuple nextRow() {
+        row = (row + 1) & (ROWS - 1);
+        return rows[row];
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.mahout.pig.LogisticRegression;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a complete round of training with the LogisticRegression UDF: accumulating bags of
+ * examples, training in getValue and serializing the model.  Examples are either kept in memory
+ * or spilled to a temporary file and are trained on with either of the training engines.  The time
+ * and allocation reported are for the whole round.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogisticRegressionBenchmark {
+    private static final List<String> CATEGORIES = ImmutableList.of("a", "b", "c");
+    private static final int EXAMPLES = 2000;
+    private static final int BAG_SIZE = 500;
+
+    @Param({"1000", "100000", "1000000"})
+    public int dimension;
+
+    @Param({"30"})
+    public int nonZeros;
+
+    @Param({"true", "false"})
+    public boolean inMemory;
+
+    @Param({"mahout", "sparse"})
+    public String engine;
+
+    private Tuple[] bags;
+
+    @Setup
+    public void setup() throws IOException {
+        Tuple[] examples = BenchmarkData.examples(new Random(BenchmarkData.SEED), CATEGORIES, dimension, nonZeros, EXAMPLES);
+        bags = new Tuple[EXAMPLES / BAG_SIZE];
+        for (int i = 0; i < bags.length; i++) {
+            bags[i] = BenchmarkData.bagOf(examples, i * BAG_SIZE, BAG_SIZE);
+        }
+    }
+
+    @Benchmark
+    public DataByteArray train() throws IOException {
+        LogisticRegression lr = new LogisticRegression(String.format("categories=a b c, features=%d, inMemory=%s, engine=%s, seed=1",
+                dimension, inMemory, engine));
+        for (Tuple bag : bags) {
+            lr.accumulate(bag);
+        }
+        DataByteArray r = lr.getValue();
+        lr.cleanup();
+        return r;
+    }
+}
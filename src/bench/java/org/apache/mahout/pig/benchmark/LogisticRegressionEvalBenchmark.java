@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.mahout.pig.ExportModel;
+import org.apache.mahout.pig.LogisticRegression;
+import org.apache.mahout.pig.LogisticRegressionEval;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.util.UDFContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures scoring single examples with LogisticRegressionEval.  The model is trained on
+ * synthetic data during setup and is either read from a model file or memory mapped after being
+ * exported with {@link ExportModel}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogisticRegressionEvalBenchmark {
+    private static final List<String> CATEGORIES = ImmutableList.of("a", "b", "c");
+    private static final int EXAMPLES = 1024;
+
+    @Param({"1000", "100000", "1000000"})
+    public int dimension;
+
+    @Param({"30"})
+    public int nonZeros;
+
+    @Param({"file", "mapped"})
+    public String model;
+
+    private File dir;
+    private Tuple[] inputs;
+    private int input;
+
+    private LogisticRegressionEval eval;
+
+    @Setup
+    public void setup() throws IOException {
+        // outside of a Pig job, models are read with a default configuration
+        UDFContext.getUDFContext().addJobConf(new Configuration());
+
+        Tuple[] examples = BenchmarkData.examples(new Random(BenchmarkData.SEED), CATEGORIES, dimension, nonZeros, EXAMPLES);
+        LogisticRegression lr = new LogisticRegression(String.format("categories=a b c, features=%d, seed=1", dimension));
+        lr.accumulate(BenchmarkData.bagOf(examples, 0, EXAMPLES));
+
+        dir = Files.createTempDir();
+        File file = new File(dir, "model.dat");
+        Files.write(lr.getValue().get(), file);
+
+        if ("mapped".equals(model)) {
+            File mapped = new File(dir, "model.scoring");
+            ExportModel.main(new String[]{"file=" + file.getPath(), mapped.getPath()});
+            eval = new LogisticRegressionEval("mapped=" + mapped.getPath());
+        } else {
+            eval = new LogisticRegressionEval("file=" + file.getPath());
+        }
+
+        inputs = new Tuple[EXAMPLES];
+        for (int i = 0; i < EXAMPLES; i++) {
+            inputs[i] = TupleFactory.getInstance().newTuple(examples[i].get(1));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        eval.finish();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public String score() throws IOException {
+        input = (input + 1) & (EXAMPLES - 1);
+        return eval.exec(inputs[input]);
+    }
+}
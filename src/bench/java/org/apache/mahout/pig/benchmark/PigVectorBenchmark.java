@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.benchmark;
+
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.pig.PigVector;
+import org.apache.pig.data.DataByteArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serializing vectors with PigVector and reading them back, both as Mahout vectors and
+ * with the allocation-free accessor that training and scoring use.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PigVectorBenchmark {
+    private static final int VECTORS = 64;
+
+    @Param({"1000", "100000", "1000000"})
+    public int dimension;
+
+    @Param({"30", "1000"})
+    public int nonZeros;
+
+    private Vector[] vectors;
+    private DataByteArray[] bytes;
+    private double[] weights;
+    private int vector;
+
+    private final PigVector.Accessor accessor = new PigVector.Accessor();
+
+    @Setup
+    public void setup() {
+        Random gen = new Random(BenchmarkData.SEED);
+        vectors = new Vector[VECTORS];
+        for (int i = 0; i < VECTORS; i++) {
+            vectors[i] = BenchmarkData.vector(gen, dimension, nonZeros);
+        }
+        bytes = BenchmarkData.encode(vectors);
+
+        weights = new double[dimension];
+        for (int i = 0; i < dimension; i++) {
+            weights[i] = gen.nextGaussian();
+        }
+    }
+
+    @Benchmark
+    public DataByteArray toBytes() {
+        return PigVector.toBytes(vectors[next()]);
+    }
+
+    @Benchmark
+    public DataByteArray toFloatBytes() {
+        return PigVector.toBytes(vectors[next()], true);
+    }
+
+    @Benchmark
+    public Vector fromBytes() {
+        return PigVector.fromBytes(bytes[next()]);
+    }
+
+    @Benchmark
+    public double accessorDot() {
+        return accessor.wrap(bytes[next()]).dot(weights);
+    }
+
+    private int next() {
+        vector = (vector + 1) & (VECTORS - 1);
+        return vector;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates a logistic regression classifier on a whole bag of rows at a time.
+ * <p/>
+ * The input is a bag of tuples whose first field is an encoded vector.  The output is a bag with
+ * one tuple per input row containing the remaining fields of the row followed by the most likely
+ * category and its probability.  If the option scores=true is given, a tuple with the probability
+ * of every category is added at the end.
+ * <p/>
+ * The model is specified the same way as for {@link LogisticRegressionEval} and is loaded when the
+ * first bag is scored.  Loaded models are shared with other instances in the same JVM.  For example:
+ * <pre>
+ *     define classify org.apache.mahout.pig.BatchLogisticRegressionEval('sequence=model.dat, key=1, scores=true');
+ *     scored = foreach (group vectors by id % 1000) generate flatten(classify(vectors.(v, id)));
+ * </pre>
+ */
+public class BatchLogisticRegressionEval extends EvalFunc<DataBag> {
+    private final ModelSource source;
+    private final boolean includeScores;
+    private ModelCache.Lease lease;
+    private LinearScorer model;
+
+    private final PigVector.Accessor accessor = new PigVector.Accessor();
+    private double[] scores;
+
+    public BatchLogisticRegressionEval(String modelParams) {
+        Splitter onComma = Splitter.on(",").trimResults().omitEmptyStrings();
+        Splitter onEquals = Splitter.on("=").trimResults();
+        Joiner withSpaces = Joiner.on(" ");
+
+        Map<String, String> options = Maps.newHashMap();
+        for (String option : onComma.split(modelParams)) {
+            List<String> values = Lists.newArrayList(onEquals.split(option));
+            options.put(values.get(0), values.get(1));
+        }
+
+        source = new ModelSource(options);
+
+        includeScores = options.containsKey("scores") && Boolean.parseBoolean(options.get("scores"));
+        options.remove("scores");
+
+        if (options.size() > 0) {
+            throw new BadClassifierSpecException("Extra options supplied: " + withSpaces.join(options.keySet()));
+        }
+    }
+
+    /**
+     * Scores with a model that has already been loaded.
+     */
+    BatchLogisticRegressionEval(Classifier classifier, boolean includeScores) {
+        this.source = null;
+        this.includeScores = includeScores;
+        setModel(new LinearScorer(classifier));
+    }
+
+    @Override
+    public DataBag exec(Tuple input) throws IOException {
+        if (model == null) {
+            acquireModel();
+        }
+
+        TupleFactory tupleFactory = TupleFactory.getInstance();
+        DataBag rows = (DataBag) input.get(0);
+        DataBag r = BagFactory.getInstance().newDefaultBag();
+        for (Tuple row : rows) {
+            int best = model.score(accessor.wrap((DataByteArray) row.get(0)), scores);
+
+            int fields = row.size() - 1;
+            Tuple out = tupleFactory.newTuple(fields + (includeScores ? 3 : 2));
+            for (int i = 0; i < fields; i++) {
+                out.set(i, row.get(i + 1));
+            }
+            out.set(fields, model.getCategories().get(best));
+            out.set(fields + 1, scores[best]);
+            if (includeScores) {
+                Tuple all = tupleFactory.newTuple(scores.length);
+                for (int k = 0; k < scores.length; k++) {
+                    all.set(k, scores[k]);
+                }
+                out.set(fields + 2, all);
+            }
+            r.add(out);
+        }
+        return r;
+    }
+
+    /**
+     * Releases the model so that it can be dropped from the shared cache.
+     */
+    @Override
+    public void finish() {
+        if (lease != null) {
+            lease.close();
+            lease = null;
+            model = null;
+        }
+    }
+
+    private void acquireModel() throws IOException {
+        lease = ModelCache.shared().acquire(source);
+        setModel(lease.model());
+    }
+
+    private void setModel(LinearScorer model) {
+        this.model = model;
+        scores = new double[model.numCategories()];
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures how much a model exported with {@link ExportModel} differs from the full model on a bag
+ * of held-out examples.
+ * <p/>
+ * The full model is specified the same way as for {@link LogisticRegressionEval} and the exported
+ * model is given with compact=path.  The input is a bag of (target, vector) tuples like the
+ * training data for {@link LogisticRegression}.  The result is a tuple containing
+ * <ul>
+ * <li>the number of examples</li>
+ * <li>the accuracy of the full model</li>
+ * <li>the accuracy of the exported model</li>
+ * <li>the change in accuracy, negative if the exported model is worse</li>
+ * <li>the fraction of examples where both models pick the same category</li>
+ * <li>the largest difference between the probabilities given by the two models</li>
+ * </ul>
+ * For example:
+ * <pre>
+ *     define compare org.apache.mahout.pig.CompareModels('file=model.dat, compact=model.small');
+ *     delta = foreach (group test all) generate flatten(compare(test));
+ * </pre>
+ */
+public class CompareModels extends EvalFunc<Tuple> {
+    private final ModelSource referenceSource;
+    private final ModelSource compactSource;
+
+    private ModelCache.Lease referenceLease;
+    private ModelCache.Lease compactLease;
+    private LinearScorer reference;
+    private LinearScorer compact;
+
+    private final PigVector.Accessor accessor = new PigVector.Accessor();
+
+    public CompareModels(String modelParams) {
+        Splitter onComma = Splitter.on(",").trimResults().omitEmptyStrings();
+        Splitter onEquals = Splitter.on("=").trimResults();
+        Joiner withSpaces = Joiner.on(" ");
+
+        Map<String, String> options = Maps.newHashMap();
+        for (String option : onComma.split(modelParams)) {
+            List<String> values = Lists.newArrayList(onEquals.split(option));
+            options.put(values.get(0), values.get(1));
+        }
+
+        if (!options.containsKey("compact")) {
+            throw new BadClassifierSpecException("Must specify exported model to compare with compact=path");
+        }
+        Map<String, String> compactOptions = Maps.newHashMap();
+        compactOptions.put("mapped", options.remove("compact"));
+        compactSource = new ModelSource(compactOptions);
+
+        referenceSource = new ModelSource(options);
+
+        if (options.size() > 0) {
+            throw new BadClassifierSpecException("Extra options supplied: " + withSpaces.join(options.keySet()));
+        }
+    }
+
+    /**
+     * Compares two models that have already been loaded.
+     */
+    CompareModels(LinearScorer reference, LinearScorer compact) {
+        this.referenceSource = null;
+        this.compactSource = null;
+        this.reference = reference;
+        this.compact = compact;
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException {
+        if (reference == null) {
+            referenceLease = ModelCache.shared().acquire(referenceSource);
+            compactLease = ModelCache.shared().acquire(compactSource);
+            reference = referenceLease.model();
+            compact = compactLease.model();
+        }
+        if (reference.numCategories() != compact.numCategories() || !reference.getCategories().equals(compact.getCategories())) {
+            throw new IOException("Models have different categories");
+        }
+
+        List<String> categories = reference.getCategories();
+        double[] p = new double[reference.numCategories()];
+        double[] q = new double[compact.numCategories()];
+
+        long examples = 0;
+        long referenceCorrect = 0;
+        long compactCorrect = 0;
+        long agree = 0;
+        double maxDifference = 0;
+        for (Tuple example : (DataBag) input.get(0)) {
+            int target = categories.indexOf(example.get(0));
+            accessor.wrap((DataByteArray) example.get(1));
+            int a = reference.score(accessor, p);
+            int b = compact.score(accessor, q);
+
+            examples++;
+            if (a == target) {
+                referenceCorrect++;
+            }
+            if (b == target) {
+                compactCorrect++;
+            }
+            if (a == b) {
+                agree++;
+            }
+            for (int k = 0; k < p.length; k++) {
+                maxDifference = Math.max(maxDifference, Math.abs(p[k] - q[k]));
+            }
+        }
+
+        Tuple r = TupleFactory.getInstance().newTuple(6);
+        r.set(0, examples);
+        if (examples > 0) {
+            r.set(1, (double) referenceCorrect / examples);
+            r.set(2, (double) compactCorrect / examples);
+            r.set(3, (double) (compactCorrect - referenceCorrect) / examples);
+            r.set(4, (double) agree / examples);
+            r.set(5, maxDifference);
+        }
+        return r;
+    }
+
+    /**
+     * Releases the models so that they can be dropped from the shared cache.
+     */
+    @Override
+    public void finish() {
+        if (referenceLease != null) {
+            referenceLease.close();
+            compactLease.close();
+            referenceLease = null;
+            compactLease = null;
+            reference = null;
+            compact = null;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import org.apache.pig.Accumulator;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Trains a model like {@link LogisticRegression} with the folds option and returns the scores of
+ * each fold along with the model.
+ * <p/>
+ * The options are the same as for {@link LogisticRegression} and must include folds=k.  The result
+ * is a tuple of the model trained on all of the data, in the same form as the result of
+ * {@link LogisticRegression}, and a bag with a tuple for each fold containing
+ * <ul>
+ * <li>the number of the fold, starting at 1</li>
+ * <li>the number of examples in the fold</li>
+ * <li>the mean log-likelihood of those examples under the model trained without them</li>
+ * <li>the accuracy of that model on the fold</li>
+ * <li>the AUC of that model on the fold, or NaN if the fold doesn't have examples of each category</li>
+ * </ul>
+ * For example:
+ * <pre>
+ *     define train org.apache.mahout.pig.CrossValidatedLogisticRegression('folds=5, features=100000, categories=...');
+ *     result = foreach (group vectors all) generate flatten(train(vectors));
+ *     store (foreach result generate 1 as key, model) into 'model.dat' using ...;
+ *     store (foreach result generate flatten(folds)) into 'folds';
+ * </pre>
+ */
+public class CrossValidatedLogisticRegression extends EvalFunc<Tuple> implements Accumulator<Tuple> {
+    private final LogisticRegression trainer;
+
+    public CrossValidatedLogisticRegression(String modelParams) throws IOException {
+        trainer = new LogisticRegression(modelParams);
+        if (trainer.getFolds() == 0) {
+            throw new BadClassifierSpecException("Must specify the number of cross-validation folds with folds=k");
+        }
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException {
+        accumulate(input);
+        return getValue();
+    }
+
+    public void accumulate(Tuple examples) throws IOException {
+        trainer.accumulate(examples);
+    }
+
+    /**
+     * Trains the models and returns the model trained on all of the data with the scores of each
+     * fold.
+     */
+    public Tuple getValue() {
+        DataByteArray model = trainer.getValue();
+
+        TupleFactory tuples = TupleFactory.getInstance();
+        DataBag folds = BagFactory.getInstance().newDefaultBag();
+        List<ValidationStats> stats = trainer.getFoldValidation();
+        for (int i = 0; i < stats.size(); i++) {
+            ValidationStats fold = stats.get(i);
+            Tuple t = tuples.newTuple(5);
+            try {
+                t.set(0, i + 1);
+                t.set(1, fold.examples());
+                t.set(2, fold.logLikelihood());
+                t.set(3, fold.accuracy());
+                t.set(4, fold.auc());
+            } catch (IOException e) {
+                // should never happen
+                throw new ImpossibleStateError("Can't put fold results into tuple", e);
+            }
+            folds.add(t);
+        }
+
+        Tuple r = tuples.newTuple(2);
+        try {
+            r.set(0, model);
+            r.set(1, folds);
+        } catch (IOException e) {
+            // should never happen
+            throw new ImpossibleStateError("Can't put results into tuple", e);
+        }
+        return r;
+    }
+
+    public void cleanup() {
+        trainer.cleanup();
+    }
+
+    @Override
+    public Schema outputSchema(Schema input) {
+        try {
+            Schema fold = new Schema();
+            fold.add(new Schema.FieldSchema("fold", DataType.INTEGER));
+            fold.add(new Schema.FieldSchema("examples", DataType.LONG));
+            fold.add(new Schema.FieldSchema("logLikelihood", DataType.DOUBLE));
+            fold.add(new Schema.FieldSchema("accuracy", DataType.DOUBLE));
+            fold.add(new Schema.FieldSchema("auc", DataType.DOUBLE));
+
+            Schema result = new Schema();
+            result.add(new Schema.FieldSchema("model", DataType.BYTEARRAY));
+            result.add(new Schema.FieldSchema("folds", new Schema(new Schema.FieldSchema(null, fold, DataType.TUPLE)), DataType.BAG));
+            return new Schema(new Schema.FieldSchema(null, result, DataType.TUPLE));
+        } catch (FrontendException e) {
+            throw new ImpossibleStateError("Can't build output schema", e);
+        }
+    }
+}
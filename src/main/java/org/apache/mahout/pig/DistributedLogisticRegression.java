@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import org.apache.mahout.classifier.sgd.PolymorphicWritable;
+import org.apache.mahout.math.function.Functions;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Trains logistic regression models in parallel and averages them.
+ * <p/>
+ * This takes the same options as {@link LogisticRegression}, but because it is algebraic, pig can
+ * use it in the combiner.  Each combiner trains a separate model on the examples it sees and the
+ * final reducer trains a model on any remaining examples and then averages the coefficients of all
+ * of the models.  This means that training data doesn't all have to go to a single reducer, but
+ * the result is an average of models trained on parts of the data rather than a single model
+ * trained on all of it.
+ * <p/>
+ * One additional option is recognized:
+ * <ul>
+ * <li>weighted - if "true" then each model is weighted by the number of examples it was trained on
+ * when averaging.  If "false" all models have equal weight.  The default is "true".</li>
+ * </ul>
+ * <p/>
+ * Between stages, partial results are passed as a tuple containing a bag of examples that have not
+ * yet been used for training, the number of examples and the number of models that have been averaged
+ * so far and the averaged model in the same form as the result of {@link LogisticRegression}.
+ */
+public class DistributedLogisticRegression extends LogisticRegression implements Algebraic {
+    private static final String WEIGHTED = "weighted";
+
+    public DistributedLogisticRegression(String modelParams) throws IOException {
+        super(withoutWeighting(modelParams));
+    }
+
+    public String getInitial() {
+        return Initial.class.getName();
+    }
+
+    public String getIntermed() {
+        return Intermed.class.getName();
+    }
+
+    public String getFinal() {
+        return Final.class.getName();
+    }
+
+    /**
+     * Passes each example through as a partial result with no model.
+     */
+    public static class Initial extends EvalFunc<Tuple> {
+        public Initial() {
+        }
+
+        public Initial(String modelParams) {
+        }
+
+        @Override
+        public Tuple exec(Tuple input) throws IOException {
+            Tuple r = TupleFactory.getInstance().newTuple(4);
+            r.set(0, input.get(0));
+            r.set(1, 0L);
+            r.set(2, 0L);
+            r.set(3, null);
+            return r;
+        }
+    }
+
+    /**
+     * Trains a model on the examples in a group of partial results and averages it with the models
+     * that are already there.
+     */
+    public static class Intermed extends EvalFunc<Tuple> {
+        private final String modelParams;
+
+        public Intermed(String modelParams) {
+            this.modelParams = modelParams;
+        }
+
+        @Override
+        public Tuple exec(Tuple input) throws IOException {
+            return merge((DataBag) input.get(0), modelParams).asTuple();
+        }
+    }
+
+    /**
+     * Produces the final averaged model.
+     */
+    public static class Final extends EvalFunc<DataByteArray> {
+        private final String modelParams;
+
+        public Final(String modelParams) {
+            this.modelParams = modelParams;
+        }
+
+        @Override
+        public DataByteArray exec(Tuple input) throws IOException {
+            return merge((DataBag) input.get(0), modelParams).model();
+        }
+    }
+
+    private static Average merge(DataBag partials, String modelParams) throws IOException {
+        Average r = new Average(isWeighted(modelParams));
+
+        LogisticRegression trainer = null;
+        long examples = 0;
+        for (Tuple partial : partials) {
+            DataBag data = (DataBag) partial.get(0);
+            if (data != null && data.size() > 0) {
+                if (trainer == null) {
+                    trainer = new LogisticRegression(withoutWeighting(modelParams));
+                }
+                trainer.accumulate(TupleFactory.getInstance().newTuple(data));
+                examples += data.size();
+            }
+            if (partial.get(3) != null) {
+                r.add((DataByteArray) partial.get(3), (Long) partial.get(1), (Long) partial.get(2));
+            }
+        }
+
+        if (trainer != null) {
+            try {
+                r.add(trainer.getValue(), examples, 1);
+            } finally {
+                trainer.cleanup();
+            }
+        }
+        return r;
+    }
+
+    private static boolean isWeighted(String modelParams) {
+        for (String option : Splitter.on(",").trimResults().omitEmptyStrings().split(modelParams)) {
+            List<String> values = Lists.newArrayList(Splitter.on("=").trimResults().split(option));
+            if (WEIGHTED.equals(values.get(0))) {
+                return Boolean.parseBoolean(values.get(1));
+            }
+        }
+        return true;
+    }
+
+    private static String withoutWeighting(String modelParams) {
+        List<String> options = Lists.newArrayList();
+        for (String option : Splitter.on(",").trimResults().omitEmptyStrings().split(modelParams)) {
+            if (!WEIGHTED.equals(Splitter.on("=").trimResults().split(option).iterator().next())) {
+                options.add(option);
+            }
+        }
+        return Joiner.on(",").join(options);
+    }
+
+    /**
+     * A weighted average of models.  The learning rate state comes from the first model.
+     */
+    private static class Average {
+        private final boolean weighted;
+
+        private Classifier classifier;
+        private double totalWeight;
+        private long examples;
+        private long models;
+
+        Average(boolean weighted) {
+            this.weighted = weighted;
+        }
+
+        void add(DataByteArray bytes, long examples, long models) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.get()));
+            Classifier c;
+            try {
+                c = PolymorphicWritable.read(in, Classifier.class);
+            } finally {
+                in.close();
+            }
+
+            double weight = weighted ? examples : models;
+            if (classifier == null) {
+                classifier = c;
+                classifier.getModel().getBeta().assign(Functions.mult(weight));
+            } else {
+                classifier.getModel().getBeta().assign(c.getModel().getBeta(), Functions.plusMult(weight));
+            }
+            totalWeight += weight;
+            this.examples += examples;
+            this.models += models;
+        }
+
+        DataByteArray model() {
+            if (classifier == null) {
+                return null;
+            }
+
+            if (totalWeight > 0) {
+                classifier.getModel().getBeta().assign(Functions.div(totalWeight));
+                totalWeight = 1;
+            }
+
+            try {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(baos);
+                PolymorphicWritable.write(out, classifier);
+                out.close();
+                return new DataByteArray(baos.toByteArray());
+            } catch (IOException e) {
+                // should never happen
+                throw new ImpossibleStateError("Can't serialize averaged model", e);
+            }
+        }
+
+        Tuple asTuple() throws IOException {
+            Tuple r = TupleFactory.getInstance().newTuple(4);
+            r.set(0, BagFactory.getInstance().newDefaultBag());
+            r.set(1, examples);
+            r.set(2, models);
+            r.set(3, model());
+            return r;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.io.Closeables;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Holds training examples in a file so that they don't have to fit in memory.
+ * <p/>
+ * The file is append-only.  Each example is written as a fixed header consisting of the target
+ * and the number of non-zero elements followed by the packed indices and then the packed values:
+ * <pre>
+ *     int target
+ *     int n
+ *     int[n] indices
+ *     double[n] values
+ * </pre>
+ * All numbers are big-endian.  Examples are read back through memory mapped windows onto the file
+ * so each pass over the data runs at close to disk speed with no parsing beyond reading the numbers.
+ * <p/>
+ * The offset of every 1024th example is remembered so that several readers can each start near
+ * their own contiguous range of examples.
+ */
+class ExampleFile {
+    // size of the part of the file that is mapped at one time
+    private static final int DEFAULT_WINDOW = 1 << 28;
+    private static final int HEADER = 8;
+    private static final int CHECKPOINT = 1024;
+
+    private final File file;
+    private final int cardinality;
+    private final int window;
+
+    private DataOutputStream out;
+    private int examples;
+    private long bytes;
+
+    // offset of example k * CHECKPOINT
+    private long[] checkpoints = new long[16];
+
+    // scratch space for one example
+    private int[] indices = new int[64];
+    private double[] values = new double[64];
+
+    ExampleFile(File file, int cardinality) {
+        this(file, cardinality, DEFAULT_WINDOW);
+    }
+
+    ExampleFile(File file, int cardinality, int window) {
+        this.file = file;
+        this.cardinality = cardinality;
+        this.window = window;
+    }
+
+    /**
+     * Appends one example.  The output stream is kept open between calls and is closed
+     * when the examples are read back.
+     */
+    void append(int target, PigVector.Accessor features) throws IOException {
+        int n = 0;
+        while (features.next()) {
+            if (n == indices.length) {
+                indices = Arrays.copyOf(indices, 2 * n);
+                values = Arrays.copyOf(values, 2 * n);
+            }
+            indices[n] = features.index();
+            values[n] = features.value();
+            n++;
+        }
+
+        if (examples % CHECKPOINT == 0) {
+            int k = examples / CHECKPOINT;
+            if (k == checkpoints.length) {
+                checkpoints = Arrays.copyOf(checkpoints, 2 * k);
+            }
+            checkpoints[k] = bytes;
+        }
+
+        if (out == null) {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+        }
+        out.writeInt(target);
+        out.writeInt(n);
+        for (int i = 0; i < n; i++) {
+            out.writeInt(indices[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            out.writeDouble(values[i]);
+        }
+        examples++;
+        bytes += HEADER + 12L * n;
+    }
+
+    /**
+     * Returns the number of examples appended since this file was last cleared.
+     */
+    int size() {
+        return examples;
+    }
+
+    /**
+     * Returns the number of bytes of examples appended since this file was last cleared.
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Opens a reader positioned before the first example.  Any pending output is flushed first.
+     */
+    Reader read() throws IOException {
+        return read(0, examples);
+    }
+
+    /**
+     * Opens a reader over the examples numbered from first up to but not including end.
+     * Readers are independent and can be used from different threads, and several threads can
+     * open readers at the same time once all examples have been appended.
+     */
+    Reader read(int first, int end) throws IOException {
+        closeOutput();
+        return new Reader(first, end);
+    }
+
+    /**
+     * Discards all examples and deletes the file.
+     */
+    void clear() {
+        Closeables.closeQuietly(out);
+        out = null;
+        examples = 0;
+        bytes = 0;
+        file.delete();
+    }
+
+    private synchronized void closeOutput() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Steps through the examples in the order they were written.  The same vector is reused for
+     * each example so nothing is allocated per example.
+     */
+    class Reader {
+        private final long length;
+        private final FileChannel channel;
+
+        private MappedByteBuffer buffer;
+        // where in the file the current window starts
+        private long base;
+        private long position;
+        private int remaining;
+        private boolean closed;
+
+        private int target;
+        private final Vector features = new RandomAccessSparseVector(cardinality);
+
+        // the elements set in features for the current example
+        private int[] current = new int[64];
+        private int size;
+
+        private Reader(int first, int end) throws IOException {
+            remaining = Math.max(0, end - first);
+            if (remaining > 0 && file.exists()) {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                channel = raf.getChannel();
+                length = channel.size();
+
+                // start at the nearest checkpoint and skip forward over the headers
+                position = checkpoints[first / CHECKPOINT];
+                for (int i = first % CHECKPOINT; i > 0 && position < length; i--) {
+                    checkHeader();
+                    ensure(position, HEADER);
+                    buffer.getInt();
+                    position += HEADER + 12L * buffer.getInt();
+                }
+            } else {
+                channel = null;
+                length = 0;
+            }
+        }
+
+        /**
+         * Advances to the next example.
+         *
+         * @return false if there are no more examples, in which case the reader has been closed.
+         */
+        boolean next() throws IOException {
+            if (closed) {
+                return false;
+            }
+            if (remaining == 0 || position >= length) {
+                close();
+                return false;
+            }
+            checkHeader();
+
+            ensure(position, HEADER);
+            target = buffer.getInt();
+            int n = buffer.getInt();
+            if (n < 0 || position + HEADER + 12L * n > length) {
+                close();
+                throw new IOException("Truncated training example at offset " + position);
+            }
+
+            ensure(position + HEADER, 12L * n);
+            for (int i = 0; i < size; i++) {
+                features.setQuick(current[i], 0);
+            }
+            if (n > current.length) {
+                current = new int[Math.max(n, 2 * current.length)];
+            }
+            int valueStart = buffer.position() + 4 * n;
+            for (int i = 0; i < n; i++) {
+                current[i] = buffer.getInt();
+                features.setQuick(current[i], buffer.getDouble(valueStart + 8 * i));
+            }
+            size = n;
+            position += HEADER + 12L * n;
+            remaining--;
+            return true;
+        }
+
+        int target() {
+            return target;
+        }
+
+        /**
+         * Returns the features of the current example.  The vector is overwritten by the next call
+         * to {@link #next()}.
+         */
+        Vector features() {
+            return features;
+        }
+
+        void close() throws IOException {
+            closed = true;
+            buffer = null;
+            if (channel != null) {
+                channel.close();
+            }
+        }
+
+        private void checkHeader() throws IOException {
+            if (position + HEADER > length) {
+                close();
+                throw new IOException("Truncated training example at offset " + position);
+            }
+        }
+
+        /**
+         * Makes sure that the current window covers the bytes needed and positions the buffer
+         * at the first of them.
+         */
+        private void ensure(long offset, long needed) throws IOException {
+            if (buffer == null || offset < base || offset + needed > base + buffer.limit()) {
+                long size = Math.min(Math.max(window, needed), length - offset);
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Training example too large to map: " + needed + " bytes");
+                }
+                base = offset;
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, size);
+            }
+            buffer.position((int) (offset - base));
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Holds training examples in memory as a few large primitive arrays rather than as one vector
+ * object per example.
+ * <p/>
+ * The non-zero elements of all examples are packed end to end into a single array of indices and
+ * a single array of values.  The elements of example k run from offsets[k] up to offsets[k+1].
+ * Values can be kept in single precision to halve their size.
+ * <p/>
+ * Examples are read back through a {@link Cursor} which loads an example into a vector that is
+ * reused from one example to the next.
+ */
+class ExampleStore {
+    private final boolean floatValues;
+
+    private int[] targets = new int[1024];
+    private int[] offsets = new int[1025];
+    private int[] indices = new int[16384];
+    private double[] doubleValues;
+    private float[] floatValuesArray;
+    private int size;
+
+    ExampleStore(boolean floatValues) {
+        this.floatValues = floatValues;
+        if (floatValues) {
+            floatValuesArray = new float[indices.length];
+        } else {
+            doubleValues = new double[indices.length];
+        }
+    }
+
+    /**
+     * Appends one example.
+     */
+    void add(int target, PigVector.Accessor features) {
+        if (size == targets.length) {
+            targets = Arrays.copyOf(targets, 2 * size);
+            offsets = Arrays.copyOf(offsets, 2 * size + 1);
+        }
+
+        int n = offsets[size];
+        while (features.next()) {
+            if (features.value() == 0) {
+                continue;
+            }
+            if (n == indices.length) {
+                grow(n);
+            }
+            indices[n] = features.index();
+            if (floatValues) {
+                floatValuesArray[n] = (float) features.value();
+            } else {
+                doubleValues[n] = features.value();
+            }
+            n++;
+        }
+
+        targets[size] = target;
+        size++;
+        offsets[size] = n;
+    }
+
+    /**
+     * Appends one example given as a vector.
+     */
+    void add(int target, Vector features) {
+        if (size == targets.length) {
+            targets = Arrays.copyOf(targets, 2 * size);
+            offsets = Arrays.copyOf(offsets, 2 * size + 1);
+        }
+
+        int n = offsets[size];
+        Iterator<Vector.Element> i = features.iterateNonZero();
+        while (i.hasNext()) {
+            Vector.Element element = i.next();
+            if (n == indices.length) {
+                grow(n);
+            }
+            indices[n] = element.index();
+            if (floatValues) {
+                floatValuesArray[n] = (float) element.get();
+            } else {
+                doubleValues[n] = element.get();
+            }
+            n++;
+        }
+
+        targets[size] = target;
+        size++;
+        offsets[size] = n;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns a new cursor for reading examples into vectors with the given cardinality.
+     */
+    Cursor cursor(int cardinality) {
+        return new Cursor(cardinality);
+    }
+
+    /**
+     * Removes all examples but keeps the storage for re-use.  Any cursors must be released first.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns the number of bytes used by the arrays that hold the examples, including space that
+     * has been allocated but not yet used.
+     */
+    long footprint() {
+        long valueSize = floatValues ? 4 : 8;
+        return 4L * targets.length + 4L * offsets.length + (4 + valueSize) * indices.length;
+    }
+
+    private void grow(int n) {
+        // grow by half again to limit the over-allocation on very large data
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, n + (n >> 1) + 1L);
+        if (capacity <= n) {
+            throw new IllegalStateException("Too many non-zero elements to hold in memory");
+        }
+        indices = Arrays.copyOf(indices, capacity);
+        if (floatValues) {
+            floatValuesArray = Arrays.copyOf(floatValuesArray, capacity);
+        } else {
+            doubleValues = Arrays.copyOf(doubleValues, capacity);
+        }
+    }
+
+    /**
+     * Loads examples into a reusable vector.  Each thread reading the store needs its own cursor.
+     */
+    class Cursor {
+        private final Vector features;
+        private int current = -1;
+        private int target;
+
+        private Cursor(int cardinality) {
+            features = new RandomAccessSparseVector(cardinality);
+        }
+
+        /**
+         * Loads example k.  The vector returned by {@link #features()} is overwritten by the next
+         * call.
+         */
+        void load(int k) {
+            release();
+            for (int i = offsets[k]; i < offsets[k + 1]; i++) {
+                features.setQuick(indices[i], floatValues ? floatValuesArray[i] : doubleValues[i]);
+            }
+            target = targets[k];
+            current = k;
+        }
+
+        /**
+         * Clears the vector.  This must be done before the store is cleared.
+         */
+        void release() {
+            if (current >= 0) {
+                for (int i = offsets[current]; i < offsets[current + 1]; i++) {
+                    features.setQuick(indices[i], 0);
+                }
+            }
+            current = -1;
+        }
+
+        int target() {
+            return target;
+        }
+
+        Vector features() {
+            return features;
+        }
+    }
+}
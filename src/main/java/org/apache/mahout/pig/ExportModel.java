@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports a trained model to the scoring-only format of {@link MappedModel}.
+ * <p/>
+ * The model is specified with the same options as for {@link LogisticRegressionEval}.  Other
+ * options are:
+ * <ul>
+ * <li>precision - how coefficients are stored, one of double, float, half or byte.  Byte
+ * coefficients are scaled separately for each category.  Default is double.</li>
+ * <li>threshold - coefficients with magnitude no more than this are left out.  Giving a threshold
+ * or using half or byte precision produces a sparse model.  The threshold and the byte scales apply
+ * to the coefficients after any regularization the model still owes.</li>
+ * </ul>
+ * For example:
+ * <pre>
+ *     java org.apache.mahout.pig.ExportModel 'sequence=models/part-*, key=3, precision=float' model-3.scoring
+ *     java org.apache.mahout.pig.ExportModel 'file=model.dat, precision=byte, threshold=1e-4' model.small
+ * </pre>
+ * The result can be used for scoring with mapped=model-3.scoring.  Use {@link CompareModels} to
+ * check how much accuracy is lost by a smaller model.
+ */
+public class ExportModel {
+    private ExportModel() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.printf("Usage: ExportModel 'file=model | sequence=glob, key=value [, precision=double|float|half|byte] [, threshold=t]' output\n");
+            System.exit(1);
+        }
+
+        Splitter onComma = Splitter.on(",").trimResults().omitEmptyStrings();
+        Splitter onEquals = Splitter.on("=").trimResults();
+        Joiner withSpaces = Joiner.on(" ");
+
+        Map<String, String> options = Maps.newHashMap();
+        for (String option : onComma.split(args[0])) {
+            List<String> values = Lists.newArrayList(onEquals.split(option));
+            options.put(values.get(0), values.get(1));
+        }
+
+        ModelSource source = new ModelSource(options);
+
+        MappedModel.Encoding encoding = MappedModel.Encoding.DOUBLE;
+        if (options.containsKey("precision")) {
+            String precision = options.remove("precision");
+            if ("float".equals(precision)) {
+                encoding = MappedModel.Encoding.FLOAT;
+            } else if ("half".equals(precision)) {
+                encoding = MappedModel.Encoding.HALF;
+            } else if ("byte".equals(precision)) {
+                encoding = MappedModel.Encoding.BYTE;
+            } else if (!"double".equals(precision)) {
+                throw new BadClassifierSpecException("Precision must be double, float, half or byte but was " + precision);
+            }
+        }
+
+        Double threshold = null;
+        if (options.containsKey("threshold")) {
+            threshold = Double.parseDouble(options.remove("threshold"));
+        }
+
+        if (options.size() > 0) {
+            throw new BadClassifierSpecException("Extra options supplied: " + withSpaces.join(options.keySet()));
+        }
+
+        Classifier model = source.load(new Configuration());
+        if (threshold != null || encoding == MappedModel.Encoding.HALF || encoding == MappedModel.Encoding.BYTE) {
+            MappedModel.writeSparse(model, new File(args[1]), encoding, threshold == null ? 0 : threshold);
+        } else {
+            MappedModel.write(model, new File(args[1]), encoding == MappedModel.Encoding.FLOAT);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates one of many logistic regression classifiers, chosen by a key in each input tuple.
+ * <p/>
+ * The models are the (key, model) pairs stored by {@link PigModelStorage} and the input is a tuple
+ * containing the key of the model to use and the encoded vector to classify.  Models are loaded as
+ * they are needed and a limited number are kept, dropping the least recently used one when another
+ * is needed.  This allows all segments to be scored in a single pass over the data, for instance:
+ * <pre>
+ *     define classify org.apache.mahout.pig.KeyedLogisticRegressionEval('sequence=models/part-*, maxModels=50');
+ *     scored = foreach data generate id, classify(segment, v);
+ * </pre>
+ * <p/>
+ * Options are:
+ * <ul>
+ * <li>sequence - a glob matching the sequence files that hold the models.  Required.</li>
+ * <li>maxModels - how many models to keep loaded at once.  Default is 16.</li>
+ * </ul>
+ * It is an error for a tuple to have a key for which there is no model.  Data sorted or grouped
+ * by key will need fewer models to be loaded.
+ */
+public class KeyedLogisticRegressionEval extends EvalFunc<String> {
+    static final int DEFAULT_MAX_MODELS = 16;
+
+    private final ModelSource repository;
+    private final int maxModels;
+
+    // leases on the most recently used models, least recently used first
+    private final LinkedHashMap<String, ModelCache.Lease> models;
+
+    private final PigVector.Accessor accessor = new PigVector.Accessor();
+    private double[] scores = new double[0];
+
+    public KeyedLogisticRegressionEval(String modelParams) {
+        Splitter onComma = Splitter.on(",").trimResults().omitEmptyStrings();
+        Splitter onEquals = Splitter.on("=").trimResults();
+        Joiner withSpaces = Joiner.on(" ");
+
+        Map<String, String> options = Maps.newHashMap();
+        for (String option : onComma.split(modelParams)) {
+            List<String> values = Lists.newArrayList(onEquals.split(option));
+            options.put(values.get(0), values.get(1));
+        }
+
+        repository = ModelSource.repository(options);
+
+        if (options.containsKey("maxModels")) {
+            maxModels = Integer.parseInt(options.get("maxModels"));
+            if (maxModels < 1) {
+                throw new BadClassifierSpecException("Must allow at least one model with maxModels");
+            }
+        } else {
+            maxModels = DEFAULT_MAX_MODELS;
+        }
+        options.remove("maxModels");
+
+        if (options.size() > 0) {
+            throw new BadClassifierSpecException("Extra options supplied: " + withSpaces.join(options.keySet()));
+        }
+
+        models = new LinkedHashMap<String, ModelCache.Lease>(2 * maxModels, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ModelCache.Lease> eldest) {
+                if (size() > maxModels) {
+                    eldest.getValue().close();
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+        };
+    }
+
+    @Override
+    public String exec(Tuple input) throws IOException {
+        String key = DataType.toString(input.get(0));
+        if (key == null) {
+            return null;
+        }
+
+        ModelCache.Lease lease = models.get(key);
+        if (lease == null) {
+            lease = acquire(key);
+            models.put(key, lease);
+        }
+
+        LinearScorer model = lease.model();
+        if (scores.length < model.numCategories()) {
+            scores = new double[model.numCategories()];
+        }
+        int target = model.score(accessor.wrap((DataByteArray) input.get(1)), scores);
+        return model.getCategories().get(target);
+    }
+
+    /**
+     * Releases all models so that they can be dropped from the shared cache.
+     */
+    @Override
+    public void finish() {
+        for (ModelCache.Lease lease : models.values()) {
+            lease.close();
+        }
+        models.clear();
+    }
+
+    /**
+     * Returns the number of models currently held by this function.
+     */
+    int loadedModels() {
+        return models.size();
+    }
+
+    /**
+     * Gets the model with the given key.
+     */
+    ModelCache.Lease acquire(String key) throws IOException {
+        return ModelCache.shared().acquire(repository.withKey(key));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+
+import java.util.List;
+
+/**
+ * Scores encoded vectors against the coefficients of a logistic regression model that have been
+ * copied into primitive arrays.
+ * <p/>
+ * The results are the same as OnlineLogisticRegression.classifyFull, but each vector is read in
+ * place using {@link PigVector.Accessor} and the scores go into a buffer supplied by the caller so
+ * nothing is allocated per row.  As with Mahout, the first category has an implicit score of zero
+ * and the probabilities are the soft-max of the scores.  A model that hasn't been closed still owes
+ * some regularization, which classifyFull applies before scoring, so that is applied once when the
+ * coefficients are copied.
+ * <p/>
+ * The coefficients are normally held on the heap, but can also be read from a memory mapped file
+ * written by {@link MappedModel}.
+ */
+class LinearScorer {
+    private final List<String> categories;
+    private final Coefficients coefficients;
+
+    LinearScorer(Classifier classifier) {
+        this(classifier.getCategories(), new HeapCoefficients(classifier.getModel()));
+    }
+
+    LinearScorer(List<String> categories, Coefficients coefficients) {
+        this.categories = categories;
+        this.coefficients = coefficients;
+    }
+
+    List<String> getCategories() {
+        return categories;
+    }
+
+    int numCategories() {
+        return coefficients.numCategories();
+    }
+
+    int numFeatures() {
+        return coefficients.numFeatures();
+    }
+
+    /**
+     * Returns the number of bytes of heap used by the coefficients.
+     */
+    long footprint() {
+        return coefficients.footprint();
+    }
+
+    /**
+     * Computes the probability of each category.
+     *
+     * @param features      The vector to score.  Iteration is restarted.
+     * @param probabilities Where to put the probabilities.  Must have room for all categories.
+     * @return The index of the most probable category.
+     */
+    int score(PigVector.Accessor features, double[] probabilities) {
+        int n = coefficients.numCategories();
+        for (int k = 0; k < n; k++) {
+            probabilities[k] = 0;
+        }
+
+        features.reset();
+        while (features.next()) {
+            coefficients.addTo(features.index(), features.value(), probabilities);
+        }
+        features.reset();
+
+        int best = 0;
+        double max = 0;
+        for (int k = 1; k < n; k++) {
+            if (probabilities[k] > max) {
+                max = probabilities[k];
+                best = k;
+            }
+        }
+
+        // soft-max, shifted by the largest score to avoid overflow
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            probabilities[k] = Math.exp(probabilities[k] - max);
+            sum += probabilities[k];
+        }
+        for (int k = 0; k < n; k++) {
+            probabilities[k] /= sum;
+        }
+        return best;
+    }
+
+    /**
+     * Returns a copy of a model with all of the regularization that it still owes applied, just as
+     * classifyFull would apply it before scoring an example that had every feature.  The model
+     * itself isn't changed since it may be shared.
+     */
+    static OnlineLogisticRegression caughtUp(OnlineLogisticRegression model) {
+        OnlineLogisticRegression r = new OnlineLogisticRegression(model.numCategories(), model.numFeatures(), model.getPrior());
+        r.copyFrom(model);
+        r.regularize(new DenseVector(model.numFeatures()).assign(1));
+        return r;
+    }
+
+    /**
+     * Storage for the coefficients of a model.
+     */
+    interface Coefficients {
+        /**
+         * Returns the number of categories, including the first one which has no coefficients.
+         */
+        int numCategories();
+
+        int numFeatures();
+
+        long footprint();
+
+        /**
+         * Adds value times the coefficients of a feature to the scores of categories 1 and up.
+         */
+        void addTo(int feature, double value, double[] scores);
+    }
+
+    /**
+     * Coefficients copied from a model into one array per category.
+     */
+    private static class HeapCoefficients implements Coefficients {
+        // beta[k] holds the coefficients for category k + 1
+        private final double[][] beta;
+        private final int numFeatures;
+
+        private HeapCoefficients(OnlineLogisticRegression model) {
+            Matrix m = caughtUp(model).getBeta();
+            int rows = model.numCategories() - 1;
+            numFeatures = model.numFeatures();
+            beta = new double[rows][numFeatures];
+            for (int i = 0; i < rows; i++) {
+                double[] row = beta[i];
+                for (int j = 0; j < numFeatures; j++) {
+                    row[j] = m.getQuick(i, j);
+                }
+            }
+        }
+
+        public int numCategories() {
+            return beta.length + 1;
+        }
+
+        public int numFeatures() {
+            return numFeatures;
+        }
+
+        public long footprint() {
+            return 8L * beta.length * numFeatures;
+        }
+
+        public void addTo(int feature, double value, double[] scores) {
+            for (int k = 0; k < beta.length; k++) {
+                scores[k + 1] += value * beta[k][feature];
+            }
+        }
+    }
+}
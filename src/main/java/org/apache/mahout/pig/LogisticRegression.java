@@ -21,15 +21,18 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.io.Closeables;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.mahout.classifier.sgd.AdaptiveLogisticRegression;
+import org.apache.mahout.classifier.sgd.CrossFoldLearner;
 import org.apache.mahout.classifier.sgd.L1;
 import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
 import org.apache.mahout.classifier.sgd.PolymorphicWritable;
+import org.apache.mahout.ep.State;
+import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.Vector;
-import org.apache.mahout.math.VectorWritable;
+import org.apache.mahout.math.function.Functions;
 import org.apache.pig.Accumulator;
 import org.apache.pig.EvalFunc;
 import org.apache.pig.data.DataBag;
@@ -43,6 +46,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Trains a logistic regression model entirely in memory using the simplest learning algorithm from Mahout.
@@ -80,17 +88,98 @@ import java.util.Random;
  * <ul>
  * <li>inMemory - if "true" then training examples are kept in-memory and used in a random order.  If "false" then
  * a temporary file is used to hold training examples and the order they are used is fixed by the order they are
- * given to this UDF.  The default is "true".</li>
+ * given to this UDF.  Each pass reads the file through memory mapping so data much larger than the heap can be
+ * used for multiple iterations.  The default is "true".</li>
+ * <li>seed - seeds the random number generator used to order training examples so that training can be
+ * repeated exactly.  By default, a different seed is used each time.</li>
+ * <li>shuffle - how training examples are ordered in each pass.  With "permute", each pass uses a new random
+ * permutation of all of the examples.  With "block", the examples are divided into blocks of consecutive
+ * examples, the blocks are visited in random order and the examples in each block are shuffled.  This keeps
+ * reads of spilled examples sequential.  With "none", examples are used in the order they were given.  The
+ * default is "permute" for in-memory examples and "none" otherwise.  Spilled examples can't be permuted.</li>
+ * <li>blockSize - the number of examples in each block when shuffle=block.  The default is 8192.</li>
+ * <li>floatValues - if "true" then the values of in-memory training examples are kept in single precision which
+ * reduces memory use by about a third.  The default is "false".</li>
  * <li>iterations - the number of iterations through the training data that are to be taken.</li>
+ * <li>streaming - if "true" then each example is used for training as soon as it is received and is then
+ * discarded.  Memory use doesn't depend on the number of examples and training overlaps with the delivery of the
+ * data, but examples are used in the order they arrive and only one iteration is possible.  The default is
+ * "false".</li>
+ * <li>threads - the number of threads used for training.  With more than one thread, each pass splits the
+ * training data into that many contiguous shards.  Each shard trains its own copy of the model, starting from
+ * the current model, and the coefficients of the copies are averaged at the end of the pass.  The learning rate
+ * schedule counts the examples of all of the shards, so it decays as it would with one thread.  This is not the
+ * same as training on all of the data with a single model, but it converges to similar models and each pass
+ * takes much less time on a machine with many cores.  The default is 1.</li>
+ * <li>holdout - the fraction of examples to set aside for validation rather than training.  The model is
+ * scored on these examples after each pass.  Held out examples are kept in memory or in a temporary file as
+ * training examples are.</li>
+ * <li>progressive - if "true" then each example is scored by the model just before the model is trained on it.
+ * This measures the model on every example without setting any aside.  It can't be combined with holdout.</li>
+ * <li>minImprovement - with holdout or progressive validation, training stops before the given number of
+ * iterations once a pass improves the mean log-likelihood per example by less than this.  The default is 0 so
+ * training stops when the log-likelihood gets worse.  Either way, the model from the pass with the best
+ * log-likelihood is the one that is returned.</li>
+ * <li>adaptive - if "true" then rather than training one model with the given learning rate and regularization,
+ * a population of models is trained using Mahout's AdaptiveLogisticRegression.  Each member of the population is
+ * a cross-fold learner with its own learning rate and regularization.  As training goes, the members that do best
+ * on their held out folds replace the others with mutated copies of themselves.  The averaged fold models of the
+ * best member are returned.  This searches for good settings in a single job, but can't be combined with the
+ * settings that it searches for, with a pre-existing model, with streaming or with progressive validation.  With
+ * more than one thread, members of the population are trained concurrently, and unless threads is given, adaptive
+ * training uses one thread per processor.  Training isn't repeatable even with a seed.  The default is
+ * "false".</li>
+ * <li>population - the number of models in the population when adaptive is "true".  Each member holds five
+ * models, so memory use grows quickly with this.  The default is 20.</li>
+ * <li>folds - if given, the training examples are also divided into this many folds by a hash of their position.
+ * For each fold, a copy of the model is trained on the examples in the other folds and scored on the examples in
+ * that fold.  The fold models are trained in threads of their own at the same time as the model is trained on all
+ * of the examples, reading the same stored examples.  The fold models make the given number of passes without
+ * stopping early.  The fold models themselves are discarded.  Can't be combined with streaming or adaptive.  Use
+ * {@link CrossValidatedLogisticRegression} to get the scores of each fold back along with the model.</li>
+ * <li>engine - "mahout" to train with Mahout's OnlineLogisticRegression or "sparse" to train the same kind of model
+ * with {@link SparseLogisticRegression}, which keeps coefficients and per-feature bookkeeping in primitive arrays so
+ * that each step costs time in proportion to the non-zero elements of the example rather than to the number of
+ * features.  This is much faster for sparse data with many features and categories.  Either way, the result is an
+ * OnlineLogisticRegression.  The sparse engine can't continue from a pre-existing model and can't be combined with
+ * more than one thread, adaptive or folds.  The default is "mahout".</li>
  * </ul>
+ * With holdout or progressive validation, the log-likelihood, accuracy and AUC of each pass are logged and shown
+ * in the task status and can be retrieved with {@link #getValidation()}.  Likewise, the scores of each fold are
+ * logged and can be retrieved with {@link #getFoldValidation()}.
  */
 public class LogisticRegression extends EvalFunc<DataByteArray> implements Accumulator<DataByteArray> {
     private List<String> categories;
     OnlineLogisticRegression model;
-    List<Example> trainingData = Lists.newArrayList();
+    private SparseLogisticRegression sparse;
+    ExampleStore trainingData;
     private int iterations;
     private boolean inMemory;
-    private File tmpFile;
+    private boolean streaming;
+    private ExampleStore.Cursor streamingCursor;
+    private int threads;
+    private int population;
+    private int folds;
+    private Shuffle shuffle;
+    private int blockSize;
+    private Random gen;
+    private ExampleFile spill;
+    private final PigVector.Accessor accessor = new PigVector.Accessor();
+    private UdfMetrics metrics;
+
+    private double holdout;
+    private ExampleStore holdoutData;
+    private ExampleFile holdoutSpill;
+    private boolean progressive;
+    private double minImprovement;
+    private ValidationStats streamingStats;
+    private List<ValidationStats> validation = Lists.newArrayList();
+    private List<ValidationStats> foldValidation = Lists.newArrayList();
+
+    // the model as it was after the pass with the best validation score, and where that pass is in validation
+    private OnlineLogisticRegression bestModel;
+    private SparseLogisticRegression bestSparse;
+    private int bestPass;
 
     public LogisticRegression(String modelParams) throws IOException {
         Splitter onComma = Splitter.on(",").trimResults().omitEmptyStrings();
@@ -105,7 +194,22 @@ public class LogisticRegression extends EvalFunc<DataByteArray> implements Accum
             options.put(values.get(0), values.get(1));
         }
 
+        boolean adaptive = options.containsKey("adaptive") && Boolean.parseBoolean(options.get("adaptive"));
+        options.remove("adaptive");
+
+        String engine = options.containsKey("engine") ? options.get("engine") : "mahout";
+        options.remove("engine");
+        if (!engine.equals("mahout") && !engine.equals("sparse")) {
+            throw new BadClassifierSpecException("Unknown training engine: " + engine);
+        }
+
         if (options.containsKey("model")) {
+            if (adaptive) {
+                throw new BadClassifierSpecException("Adaptive training can't continue from a pre-existing model");
+            }
+            if (engine.equals("sparse")) {
+                throw new BadClassifierSpecException("The sparse engine can't continue from a pre-existing model");
+            }
             if (options.containsKey("categories")) {
                 categories = Lists.newArrayList(onSpaces.split(options.get("categories")));
                 Configuration conf = UDFContext.getUDFContext().getJobConf();
@@ -122,29 +226,53 @@ public class LogisticRegression extends EvalFunc<DataByteArray> implements Accum
                     throw new BadClassifierSpecException("Must have more than one target category.  Remember that categories is a space separated list");
                 }
                 model = new OnlineLogisticRegression(categories.size(), Integer.parseInt(options.get("features")), new L1());
+                if (engine.equals("sparse")) {
+                    sparse = new SparseLogisticRegression(categories.size(), model.numFeatures());
+                }
                 options.remove("categories");
                 options.remove("features");
             } else {
                 throw new BadClassifierSpecException("Must specify previous model location using \"file\" or supply \"categories\" and \"features\"");
             }
 
+            if (adaptive && (options.containsKey("decayExponent") || options.containsKey("lambda")
+                    || options.containsKey("stepOffset") || options.containsKey("learningRate"))) {
+                throw new BadClassifierSpecException("Adaptive training chooses its own decayExponent, lambda, stepOffset and learningRate");
+            }
+
             if (options.containsKey("decayExponent")) {
-                model.decayExponent(Double.parseDouble(options.get("decayExponent")));
+                double decayExponent = Double.parseDouble(options.get("decayExponent"));
+                model.decayExponent(decayExponent);
+                if (sparse != null) {
+                    sparse.decayExponent(decayExponent);
+                }
                 options.remove("decayExponent");
             }
 
             if (options.containsKey("lambda")) {
-                model.lambda(Double.parseDouble(options.get("lambda")));
+                double lambda = Double.parseDouble(options.get("lambda"));
+                model.lambda(lambda);
+                if (sparse != null) {
+                    sparse.lambda(lambda);
+                }
                 options.remove("lambda");
             }
 
             if (options.containsKey("stepOffset")) {
-                model.stepOffset(Integer.parseInt(options.get("stepOffset")));
+                int stepOffset = Integer.parseInt(options.get("stepOffset"));
+                model.stepOffset(stepOffset);
+                if (sparse != null) {
+                    sparse.stepOffset(stepOffset);
+                }
                 options.remove("stepOffset");
             }
 
             if (options.containsKey("learningRate")) {
-                model.learningRate(Double.parseDouble(options.get("learningRate")));
+                double learningRate = Double.parseDouble(options.get("learningRate"));
+                model.learningRate(learningRate);
+                if (sparse != null) {
+                    sparse.learningRate(learningRate);
+                }
                 options.remove("learningRate");
             }
         }
@@ -155,13 +283,122 @@ public class LogisticRegression extends EvalFunc<DataByteArray> implements Accum
         inMemory = options.containsKey("inMemory") ? Boolean.parseBoolean(options.get("inMemory")) : true;
         options.remove("inMemory");
 
+        boolean threadsGiven = options.containsKey("threads");
+        threads = threadsGiven ? Integer.parseInt(options.get("threads")) : 1;
+        options.remove("threads");
+        if (threads < 1) {
+            throw new BadClassifierSpecException("Must have at least one thread");
+        }
+
+        gen = options.containsKey("seed") ? new Random(Long.parseLong(options.get("seed"))) : new Random();
+        options.remove("seed");
+
+        if (options.containsKey("shuffle")) {
+            try {
+                shuffle = Shuffle.valueOf(options.get("shuffle").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new BadClassifierSpecException("Unknown shuffle method: " + options.get("shuffle"));
+            }
+            if (shuffle == Shuffle.PERMUTE && !inMemory) {
+                throw new BadClassifierSpecException("Can't permute examples that are not in memory, use shuffle=block instead");
+            }
+        } else {
+            shuffle = inMemory ? Shuffle.PERMUTE : Shuffle.NONE;
+        }
+        options.remove("shuffle");
+
+        blockSize = options.containsKey("blockSize") ? Integer.parseInt(options.get("blockSize")) : 8192;
+        options.remove("blockSize");
+        if (blockSize < 1) {
+            throw new BadClassifierSpecException("Block size must be positive");
+        }
+
+        streaming = options.containsKey("streaming") && Boolean.parseBoolean(options.get("streaming"));
+        options.remove("streaming");
+        if (streaming && iterations > 1) {
+            throw new BadClassifierSpecException("Streaming training can only make a single pass through the data");
+        }
+        if (streaming && threads > 1) {
+            throw new BadClassifierSpecException("Streaming training can only use a single thread");
+        }
+
+        boolean floatValues = options.containsKey("floatValues") && Boolean.parseBoolean(options.get("floatValues"));
+        options.remove("floatValues");
+
+        holdout = options.containsKey("holdout") ? Double.parseDouble(options.get("holdout")) : 0;
+        options.remove("holdout");
+        if (holdout < 0 || holdout >= 1) {
+            throw new BadClassifierSpecException("Holdout fraction must be at least 0 and less than 1");
+        }
+        progressive = options.containsKey("progressive") && Boolean.parseBoolean(options.get("progressive"));
+        options.remove("progressive");
+        if (progressive && holdout > 0) {
+            throw new BadClassifierSpecException("Can't use both holdout and progressive validation");
+        }
+        minImprovement = options.containsKey("minImprovement") ? Double.parseDouble(options.get("minImprovement")) : 0;
+        options.remove("minImprovement");
+
+        if (adaptive) {
+            population = options.containsKey("population") ? Integer.parseInt(options.get("population")) : 20;
+            if (population < 2) {
+                throw new BadClassifierSpecException("Population must have at least two members");
+            }
+            if (streaming) {
+                throw new BadClassifierSpecException("Adaptive training can't be combined with streaming");
+            }
+            if (progressive) {
+                throw new BadClassifierSpecException("Adaptive training can't use progressive validation, use holdout instead");
+            }
+            if (!threadsGiven) {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+        } else if (options.containsKey("population")) {
+            throw new BadClassifierSpecException("Population can only be given with adaptive=true");
+        }
+        options.remove("population");
+
+        folds = options.containsKey("folds") ? Integer.parseInt(options.get("folds")) : 0;
+        options.remove("folds");
+        if (folds != 0) {
+            if (folds < 2) {
+                throw new BadClassifierSpecException("Must have at least two folds");
+            }
+            if (streaming || adaptive) {
+                throw new BadClassifierSpecException("Cross-validation folds can't be combined with streaming or adaptive training");
+            }
+        }
+
+        if (sparse != null && (threads > 1 || adaptive || folds > 0)) {
+            throw new BadClassifierSpecException("The sparse engine can't be combined with threads, adaptive or folds");
+        }
+
         if (options.size() > 0) {
             throw new BadClassifierSpecException("Extra options supplied: " + withSpaces.join(options.keySet()));
         }
 
-        if (!inMemory) {
-            tmpFile = Files.createTempFile("trainingData", "tmp").toFile();
+        if (streaming) {
+            // holds just the current example
+            trainingData = new ExampleStore(floatValues);
+            streamingCursor = trainingData.cursor(model.numFeatures());
+        } else if (inMemory) {
+            trainingData = new ExampleStore(floatValues);
+        } else {
+            File tmpFile = Files.createTempFile("trainingData", "tmp").toFile();
             tmpFile.deleteOnExit();
+            spill = new ExampleFile(tmpFile, model.numFeatures());
+        }
+        if (holdout > 0) {
+            // held out examples are kept the same way as training examples so spilling still bounds memory
+            if (inMemory) {
+                holdoutData = new ExampleStore(floatValues);
+            } else {
+                File holdoutFile = Files.createTempFile("holdoutData", "tmp").toFile();
+                holdoutFile.deleteOnExit();
+                holdoutSpill = new ExampleFile(holdoutFile, model.numFeatures());
+            }
+        }
+        if (streaming && progressive) {
+            streamingStats = new ValidationStats(categories.size());
         }
     }
 
@@ -188,43 +425,88 @@ public class LogisticRegression extends EvalFunc<DataByteArray> implements Accum
     }
 
     private void addBagOfData(DataBag data) throws IOException {
-        if (inMemory) {
-            for (Tuple input : data) {
-                trainingData.add(new Example(categories.indexOf(input.get(0)), PigVector.fromBytes((DataByteArray) input.get(1))));
-            }
-        } else {
-            DataOutputStream out = new DataOutputStream(new FileOutputStream(tmpFile));
-            try {
-                for (Tuple input : data) {
-                    out.writeInt(categories.indexOf(input.get(0)));
-                    PolymorphicWritable.write(out, new VectorWritable(PigVector.fromBytes((DataByteArray) input.get(1))));
+        metrics().count("examples", data.size());
+        for (Tuple input : data) {
+            int target = categories.indexOf(input.get(0));
+            PigVector.Accessor features = accessor.wrap((DataByteArray) input.get(1));
+            if (holdout > 0 && gen.nextDouble() < holdout) {
+                if (holdoutSpill != null) {
+                    holdoutSpill.append(target, features);
+                } else {
+                    holdoutData.add(target, features);
                 }
-            } finally {
-                out.close();
+            } else {
+                addExample(target, features);
             }
         }
     }
 
+    private void addExample(int target, PigVector.Accessor features) throws IOException {
+        if (streaming) {
+            trainingData.add(target, features);
+            streamingCursor.load(0);
+            if (streamingStats != null) {
+                streamingStats.add(streamingCursor.target(), classifyFull(streamingCursor.features()));
+            }
+            train(streamingCursor.target(), streamingCursor.features());
+            streamingCursor.release();
+            trainingData.clear();
+        } else if (inMemory) {
+            trainingData.add(target, features);
+        } else {
+            spill.append(target, features);
+        }
+    }
+
     /**
      * Called when all tuples from current key have been passed to accumulate.  This is where the
-     * actual training occurs.  We can't do it earlier unless iterations = 1 which is an unusual
-     * case.
+     * actual training occurs unless streaming is set, in which case training has already been
+     * done as the examples arrived.
      *
      * @return the trained model.
      */
     public DataByteArray getValue() {
-        for (int i = 0; i < iterations; i++) {
-            for (Example example : readInput()) {
-                model.train(example.getTarget(), example.getFeatures());
+        validation = Lists.newArrayList();
+        foldValidation = Lists.newArrayList();
+        if (streaming) {
+            if (streamingStats != null) {
+                report(0, streamingStats);
+                streamingStats = new ValidationStats(categories.size());
+            } else if (holdout > 0) {
+                report(0, evaluateHoldout());
+            }
+        } else {
+            if (inMemory && log != null) {
+                log.info(String.format("Training on %d examples held in %d bytes", trainingData.size(), trainingData.footprint()));
+            }
+            if (inMemory) {
+                metrics().count("training data bytes", trainingData.footprint());
+            } else {
+                metrics().count("spill bytes", spill.bytes());
+            }
+
+            if (population > 0) {
+                trainPopulation();
+            } else if (folds > 0) {
+                trainWithFolds();
+            } else {
+                train();
             }
         }
+        return serializeModel();
+    }
 
+    private DataByteArray serializeModel() {
+        if (sparse != null) {
+            sparse.exportTo(model);
+        }
         try {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             DataOutputStream out = new DataOutputStream(baos);
             PolymorphicWritable.write(out, new Classifier(categories, model));
             out.close();
 
+            metrics().count("model bytes", baos.size());
             return new DataByteArray(baos.toByteArray());
         } catch (IOException e) {
             // should never happen
@@ -236,9 +518,373 @@ public class LogisticRegression extends EvalFunc<DataByteArray> implements Accum
      * Called after getValue() to prepare processing for next key.
      */
     public void cleanup() {
-        if (tmpFile != null) {
-            tmpFile.delete();
+        if (trainingData != null) {
+            trainingData.clear();
+        }
+        if (spill != null) {
+            spill.clear();
         }
+        if (holdoutData != null) {
+            holdoutData.clear();
+        }
+        if (holdoutSpill != null) {
+            holdoutSpill.clear();
+        }
+        bestModel = null;
+        bestSparse = null;
+    }
+
+    /**
+     * Scores held out examples with the current model.
+     */
+    private ValidationStats evaluateHoldout() {
+        ValidationStats r = new ValidationStats(categories.size());
+        if (holdoutSpill != null) {
+            try {
+                ExampleFile.Reader in = holdoutSpill.read();
+                while (in.next()) {
+                    r.add(in.target(), classifyFull(in.features()));
+                }
+            } catch (IOException e) {
+                throw new TrainingDataException("Error reading held out examples", e);
+            }
+        } else {
+            ExampleStore.Cursor cursor = holdoutData.cursor(model.numFeatures());
+            for (int k = 0; k < holdoutData.size(); k++) {
+                cursor.load(k);
+                r.add(cursor.target(), classifyFull(cursor.features()));
+            }
+            cursor.release();
+        }
+        return r;
+    }
+
+    private void report(int pass, ValidationStats stats) {
+        validation.add(stats);
+        String message = String.format("Pass %d: %s", pass + 1, stats);
+        if (log != null) {
+            log.info(message);
+        }
+        metrics().status(message);
+    }
+
+    /**
+     * Remembers the model if the last validation has the best log-likelihood so far.  This costs a
+     * second copy of the model while training with validation.
+     */
+    private void keepIfBest() {
+        int last = validation.size() - 1;
+        if (bestPass >= 0 && !(validation.get(last).logLikelihood() > validation.get(bestPass).logLikelihood())) {
+            return;
+        }
+        bestPass = last;
+        if (sparse != null) {
+            if (bestSparse == null) {
+                bestSparse = new SparseLogisticRegression(sparse.numCategories(), sparse.numFeatures());
+            }
+            bestSparse.copyFrom(sparse);
+        } else {
+            if (bestModel == null) {
+                bestModel = new OnlineLogisticRegression(model.numCategories(), model.numFeatures(), model.getPrior());
+            }
+            bestModel.copyFrom(model);
+        }
+    }
+
+    /**
+     * Goes back to the model that had the best validation score.
+     */
+    private void restoreBest() {
+        if (sparse != null) {
+            sparse.copyFrom(bestSparse);
+        } else {
+            model.copyFrom(bestModel);
+        }
+        String message = "Using the model with the best validation: " + validation.get(bestPass);
+        if (log != null) {
+            log.info(message);
+        }
+        metrics().status(message);
+    }
+
+    /**
+     * Checks whether the last pass improved the log-likelihood by less than the minimum.
+     */
+    private boolean converged() {
+        int n = validation.size();
+        return n > 1 && validation.get(n - 1).logLikelihood() - validation.get(n - 2).logLikelihood() < minImprovement;
+    }
+
+    /**
+     * Trains whichever engine is in use on one example.
+     */
+    private void train(int target, Vector features) {
+        if (sparse != null) {
+            sparse.train(target, features);
+        } else {
+            model.train(target, features);
+        }
+    }
+
+    private Vector classifyFull(Vector features) {
+        return sparse != null ? sparse.classifyFull(features) : model.classifyFull(features);
+    }
+
+    /**
+     * Makes the given number of passes through the training data, stopping early if validation
+     * shows that the model has stopped improving.
+     */
+    private void train() {
+        bestPass = -1;
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                ValidationStats stats = progressive ? new ValidationStats(categories.size()) : null;
+                if (pool != null) {
+                    trainInParallel(pool, stats);
+                } else {
+                    for (Example example : readInput()) {
+                        if (stats != null) {
+                            stats.add(example.getTarget(), classifyFull(example.getFeatures()));
+                        }
+                        train(example.getTarget(), example.getFeatures());
+                    }
+                }
+                metrics().phase("training pass", System.nanoTime() - start);
+
+                if (holdout > 0) {
+                    stats = evaluateHoldout();
+                }
+                if (stats != null) {
+                    report(i, stats);
+                    keepIfBest();
+                    if (i + 1 < iterations && converged()) {
+                        if (log != null) {
+                            log.info(String.format("Stopping after %d of %d passes", i + 1, iterations));
+                        }
+                        break;
+                    }
+                }
+            }
+            if (bestPass >= 0 && bestPass < validation.size() - 1) {
+                restoreBest();
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Trains the model on all of the examples while, in other threads, a copy of the model is
+     * trained for each fold on the examples outside of the fold and is then scored on the examples
+     * in the fold.  All of the threads read the same stored examples.
+     */
+    private void trainWithFolds() {
+        final int n = inMemory ? trainingData.size() : spill.size();
+        ExecutorService pool = Executors.newFixedThreadPool(folds);
+        try {
+            List<Future<ValidationStats>> results = Lists.newArrayList();
+            for (int fold = 0; fold < folds; fold++) {
+                final int heldOut = fold;
+                final OnlineLogisticRegression foldModel = model.copy();
+                // seeds are drawn here so that training is repeatable
+                final Random foldGen = new Random(gen.nextLong());
+                results.add(pool.submit(new Callable<ValidationStats>() {
+                    public ValidationStats call() {
+                        for (int i = 0; i < iterations; i++) {
+                            for (Example example : readInput(0, n, foldGen)) {
+                                if (fold(example.getIndex()) != heldOut) {
+                                    foldModel.train(example.getTarget(), example.getFeatures());
+                                }
+                            }
+                        }
+                        ValidationStats stats = new ValidationStats(categories.size());
+                        for (Example example : readInput(0, n, foldGen)) {
+                            if (fold(example.getIndex()) == heldOut) {
+                                stats.add(example.getTarget(), foldModel.classifyFull(example.getFeatures()));
+                            }
+                        }
+                        return stats;
+                    }
+                }));
+            }
+
+            train();
+
+            ValidationStats overall = new ValidationStats(categories.size());
+            for (int fold = 0; fold < folds; fold++) {
+                ValidationStats stats = results.get(fold).get();
+                foldValidation.add(stats);
+                overall.addAll(stats);
+                if (log != null) {
+                    log.info(String.format("Fold %d: %s", fold + 1, stats));
+                }
+            }
+            String message = String.format("Cross-validation over %d folds: %s", folds, overall);
+            if (log != null) {
+                log.info(message);
+            }
+            metrics().status(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TrainingDataException("Interrupted during training", e);
+        } catch (ExecutionException e) {
+            throw new TrainingDataException("Error during training", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the fold that an example belongs to.  The position of the example is hashed so that
+     * folds don't follow any order in the input.
+     */
+    private int fold(int index) {
+        return (int) (((index * 0x9E3779B97F4A7C15L) >>> 33) % folds);
+    }
+
+    /**
+     * Trains a population of models with Mahout's AdaptiveLogisticRegression and replaces the model
+     * with the best of them.
+     * <p/>
+     * Each member of the population splits the examples into folds by a tracking key, so every
+     * example is given its own number as key.  That way an example is held out of the same fold in
+     * every pass.
+     */
+    private void trainPopulation() {
+        AdaptiveLogisticRegression search = new AdaptiveLogisticRegression(categories.size(), model.numFeatures(), new L1());
+        search.setPoolSize(population);
+        search.setThreadCount(threads);
+        bestPass = -1;
+        try {
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                for (Example example : readInput()) {
+                    // examples are buffered until the population is trained on them so the reused vector is copied
+                    search.train(example.getIndex(), example.getTarget(), example.getFeatures().clone());
+                }
+                metrics().phase("training pass", System.nanoTime() - start);
+
+                if (holdout > 0 && search.getBest() != null) {
+                    useBest(search.getBest());
+                    report(i, evaluateHoldout());
+                    keepIfBest();
+                    if (i + 1 < iterations && converged()) {
+                        if (log != null) {
+                            log.info(String.format("Stopping after %d of %d passes", i + 1, iterations));
+                        }
+                        break;
+                    }
+                }
+            }
+        } finally {
+            search.close();
+        }
+
+        State<AdaptiveLogisticRegression.Wrapper, CrossFoldLearner> best = search.getBest();
+        if (best == null) {
+            if (log != null) {
+                log.warn("No training examples so the model is not trained");
+            }
+        } else {
+            useBest(best);
+            if (log != null) {
+                log.info(String.format("Best of population has fitness %.4f, learning rate %.3g and lambda %.3g",
+                        best.getValue(), model.currentLearningRate(), model.getLambda()));
+            }
+            // the population may have moved on since it was last validated
+            if (bestPass >= 0 && evaluateHoldout().logLikelihood() < validation.get(bestPass).logLikelihood()) {
+                restoreBest();
+            }
+        }
+    }
+
+    /**
+     * Sets the model to the average of the fold models of a member of the population.  The fold
+     * models are copied since the population may still be training.
+     */
+    private void useBest(State<AdaptiveLogisticRegression.Wrapper, CrossFoldLearner> best) {
+        List<OnlineLogisticRegression> foldModels = best.getPayload().getLearner().getModels();
+        Matrix beta = null;
+        for (OnlineLogisticRegression fold : foldModels) {
+            // copying applies any pending regularization
+            OnlineLogisticRegression copy = fold.copy();
+            if (beta == null) {
+                model.copyFrom(copy);
+                beta = model.getBeta();
+            } else {
+                beta.assign(copy.getBeta(), Functions.PLUS);
+            }
+        }
+        beta.assign(Functions.div(foldModels.size()));
+    }
+
+    /**
+     * Makes one pass by training copies of the model on shards of the data in separate threads and
+     * averaging the copies.
+     *
+     * @param stats If not null, each example is scored by its shard's copy of the model before
+     *              training on it and the results are added to this.
+     */
+    private void trainInParallel(ExecutorService pool, ValidationStats stats) {
+        int n = inMemory ? trainingData.size() : spill.size();
+        List<Callable<Replica>> shards = Lists.newArrayList();
+        List<ValidationStats> shardStats = Lists.newArrayList();
+        for (int shard = 0; shard < threads; shard++) {
+            final Replica replica = new Replica(model);
+            final Iterable<Example> data = readInput((int) ((long) n * shard / threads), (int) ((long) n * (shard + 1) / threads),
+                    new Random(gen.nextLong()));
+            final ValidationStats scores = stats == null ? null : new ValidationStats(categories.size());
+            shardStats.add(scores);
+            shards.add(new Callable<Replica>() {
+                public Replica call() {
+                    for (Example example : data) {
+                        if (scores != null) {
+                            scores.add(example.getTarget(), replica.classifyFull(example.getFeatures()));
+                        }
+                        replica.train(example.getTarget(), example.getFeatures());
+                    }
+                    // apply any pending regularization before averaging
+                    replica.close();
+                    return replica;
+                }
+            });
+        }
+
+        try {
+            List<Future<Replica>> replicas = pool.invokeAll(shards);
+            Replica first = replicas.get(0).get();
+            for (Future<Replica> replica : replicas.subList(1, replicas.size())) {
+                first.countAll(replica.get());
+            }
+            model.copyFrom(first);
+            Matrix beta = model.getBeta();
+            for (Future<Replica> replica : replicas.subList(1, replicas.size())) {
+                beta.assign(replica.get().getBeta(), Functions.PLUS);
+            }
+            beta.assign(Functions.div(threads));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TrainingDataException("Interrupted during training", e);
+        } catch (ExecutionException e) {
+            throw new TrainingDataException("Error during training", e.getCause());
+        }
+
+        if (stats != null) {
+            for (ValidationStats scores : shardStats) {
+                stats.addAll(scores);
+            }
+        }
+    }
+
+    private UdfMetrics metrics() {
+        if (metrics == null) {
+            metrics = UdfMetrics.forUdf("LogisticRegression");
+        }
+        return metrics;
     }
 
     public int getIterations() {
@@ -249,23 +895,95 @@ public class LogisticRegression extends EvalFunc<DataByteArray> implements Accum
         return inMemory;
     }
 
+    /**
+     * Returns the number of bytes of memory used to hold in-memory training examples.
+     */
+    public long getTrainingDataFootprint() {
+        return trainingData != null ? trainingData.footprint() : 0;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getFolds() {
+        return folds;
+    }
+
+    public boolean isAdaptive() {
+        return population > 0;
+    }
+
+    public int getPopulation() {
+        return population;
+    }
+
+    /**
+     * Returns the model.  With the sparse engine, the model is brought up to date first.
+     */
     public OnlineLogisticRegression getModel() {
+        if (sparse != null) {
+            sparse.exportTo(model);
+        }
         return model;
     }
 
+    /**
+     * Returns the validation results of each pass of the last training, or an empty list if
+     * neither holdout nor progressive validation was requested.
+     */
+    public List<ValidationStats> getValidation() {
+        return validation;
+    }
+
+    /**
+     * Returns the scores of the model for each fold from the last training, or an empty list if
+     * folds weren't requested.
+     */
+    public List<ValidationStats> getFoldValidation() {
+        return foldValidation;
+    }
+
     private Iterable<Example> readInput() {
+        return readInput(0, inMemory ? trainingData.size() : spill.size(), gen);
+    }
+
+    /**
+     * Returns the training examples numbered from first up to but not including end in the order
+     * given by the shuffle option.
+     */
+    private Iterable<Example> readInput(final int first, final int end, final Random gen) {
         if (inMemory) {
             return new Iterable<Example>() {
                 public Iterator<Example> iterator() {
+                    final int[] order = new int[end - first];
+                    for (int i = 0; i < order.length; i++) {
+                        order[i] = first + i;
+                    }
+                    if (shuffle == Shuffle.PERMUTE) {
+                        shuffle(order, 0, order.length, gen);
+                    } else if (shuffle == Shuffle.BLOCK) {
+                        blockShuffle(order, gen);
+                    }
+
                     return new AbstractIterator<Example>() {
-                        int remainingExamples = trainingData.size();
-                        Random gen = new Random();
+                        int i = 0;
+                        ExampleStore.Cursor cursor = trainingData.cursor(model.numFeatures());
+                        Example example = new Example(0, cursor.features(), 0);
 
                         @Override
                         protected Example computeNext() {
-                            if (remainingExamples > 0) {
-                                remainingExamples--;
-                                return trainingData.get(gen.nextInt(trainingData.size()));
+                            if (i < order.length) {
+                                int k = order[i++];
+                                cursor.load(k);
+                                // the example and its vector are reused for every step
+                                example.target = cursor.target();
+                                example.index = k;
+                                return example;
                             } else {
                                 return endOfData();
                             }
@@ -273,55 +991,148 @@ public class LogisticRegression extends EvalFunc<DataByteArray> implements Accum
                     };
                 }
             };
+        } else if (shuffle == Shuffle.BLOCK) {
+            return new Iterable<Example>() {
+                public Iterator<Example> iterator() {
+                    int n = (end - first + blockSize - 1) / blockSize;
+                    final int[] blocks = new int[n];
+                    for (int i = 0; i < n; i++) {
+                        blocks[i] = i;
+                    }
+                    shuffle(blocks, 0, n, gen);
+
+                    return new AbstractIterator<Example>() {
+                        int nextBlock = 0;
+                        ExampleStore buffer = new ExampleStore(false);
+                        ExampleStore.Cursor cursor = buffer.cursor(model.numFeatures());
+                        Example example = new Example(0, cursor.features(), 0);
+                        int[] order = new int[0];
+                        int i = 0;
+                        int start = 0;
+
+                        @Override
+                        protected Example computeNext() {
+                            try {
+                                while (i == order.length) {
+                                    if (nextBlock == blocks.length) {
+                                        return endOfData();
+                                    }
+                                    readBlock(blocks[nextBlock++]);
+                                }
+                            } catch (IOException e) {
+                                throw new TrainingDataException("Error reading training data", e);
+                            }
+                            cursor.load(order[i]);
+                            example.target = cursor.target();
+                            example.index = start + order[i++];
+                            return example;
+                        }
+
+                        private void readBlock(int block) throws IOException {
+                            cursor.release();
+                            buffer.clear();
+                            start = first + block * blockSize;
+                            ExampleFile.Reader in = spill.read(start, Math.min(end, start + blockSize));
+                            while (in.next()) {
+                                buffer.add(in.target(), in.features());
+                            }
+                            if (order.length != buffer.size()) {
+                                order = new int[buffer.size()];
+                            }
+                            for (int k = 0; k < order.length; k++) {
+                                order[k] = k;
+                            }
+                            shuffle(order, 0, order.length, gen);
+                            i = 0;
+                        }
+                    };
+                }
+            };
         } else {
             return new Iterable<Example>() {
                 public Iterator<Example> iterator() {
                     try {
+                        final ExampleFile.Reader in = spill.read(first, end);
                         return new AbstractIterator<Example>() {
-                            DataInputStream in = new DataInputStream(new FileInputStream(tmpFile));
+                            Example example = new Example(0, in.features(), first - 1);
 
                             @Override
                             protected Example computeNext() {
-                                int target;
                                 try {
-                                    target = in.readInt();
-                                } catch (EOFException e) {
-                                    Closeables.closeQuietly(in);
-                                    return endOfData();
+                                    if (in.next()) {
+                                        example.target = in.target();
+                                        example.index++;
+                                        return example;
+                                    } else {
+                                        return endOfData();
+                                    }
                                 } catch (IOException e) {
-                                    Closeables.closeQuietly(in);
-                                    throw new TrainingDataException("Error reading training data", e);
-                                }
-                                try {
-                                    return new Example(target, PolymorphicWritable.read(in, VectorWritable.class));
-                                } catch (EOFException e) {
-                                    Closeables.closeQuietly(in);
-                                    throw new TrainingDataException("Premature EOF while reading training data", e);
-                                } catch (IOException e) {
-                                    Closeables.closeQuietly(in);
                                     throw new TrainingDataException("Error reading training data", e);
                                 }
                             }
                         };
-                    } catch (FileNotFoundException e) {
-                        throw new TrainingDataException("Could not training data file", e);
+                    } catch (IOException e) {
+                        throw new TrainingDataException("Could not read training data file", e);
                     }
                 }
             };
         }
     }
 
+    /**
+     * Visits blocks of consecutive elements in random order and shuffles the elements within each block.
+     */
+    private void blockShuffle(int[] order, Random gen) {
+        int n = (order.length + blockSize - 1) / blockSize;
+        int[] blocks = new int[n];
+        for (int i = 0; i < n; i++) {
+            blocks[i] = i;
+        }
+        shuffle(blocks, 0, n, gen);
+
+        int[] original = order.clone();
+        int k = 0;
+        for (int block : blocks) {
+            int start = block * blockSize;
+            int length = Math.min(blockSize, original.length - start);
+            System.arraycopy(original, start, order, k, length);
+            shuffle(order, k, k + length, gen);
+            k += length;
+        }
+    }
+
+    /**
+     * Fisher-Yates shuffle of part of an array.
+     */
+    private static void shuffle(int[] values, int from, int to, Random gen) {
+        for (int i = to - 1; i > from; i--) {
+            int j = from + gen.nextInt(i - from + 1);
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+
+    private enum Shuffle {
+        NONE, PERMUTE, BLOCK
+    }
+
     private static class Example {
         int target;
         Vector features;
+        int index;
 
-        public Example(int target, Vector v) {
+        public Example(int target, Vector v, int index) {
             this.target = target;
             this.features = v;
+            this.index = index;
         }
 
-        public Example(int target, VectorWritable v) {
-            this(target, v.get());
+        /**
+         * Returns the position of the example in the order that examples were given.
+         */
+        public int getIndex() {
+            return index;
         }
 
         public int getTarget() {
@@ -333,6 +1144,40 @@ public class LogisticRegression extends EvalFunc<DataByteArray> implements Accum
         }
     }
 
+    /**
+     * A copy of the model that trains on one shard of a pass.  The step and per-term counts of the
+     * other shards are added to one replica before it is copied back to the model so that the
+     * learning rate decays as if all of the examples had been seen by one model.
+     */
+    private static class Replica extends OnlineLogisticRegression {
+        private final Vector startCounts;
+        private int examples;
+
+        private Replica(OnlineLogisticRegression model) {
+            super(model.numCategories(), model.numFeatures(), model.getPrior());
+            copyFrom(model);
+            startCounts = updateCounts.clone();
+        }
+
+        @Override
+        public void train(int actual, Vector instance) {
+            super.train(actual, instance);
+            examples++;
+        }
+
+        /**
+         * Adds the examples another replica trained on to the step and per-term counts.  The
+         * averaged coefficients already include the regularization each replica applied, so none is
+         * left owing.
+         */
+        private void countAll(Replica other) {
+            step += other.examples;
+            updateCounts.assign(other.updateCounts, Functions.PLUS);
+            updateCounts.assign(other.startCounts, Functions.MINUS);
+            updateSteps.assign(step);
+        }
+    }
+
     private static class TrainingDataException extends RuntimeException {
         public TrainingDataException(String msg, Throwable e) {
             super(msg, e);
@@ -0,0 +1,513 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.math.Matrix;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * A read-only file format for models that holds only what is needed for scoring.
+ * <p/>
+ * A {@link Classifier} carries all of the training state of the underlying model.  This format
+ * keeps just the category names and the coefficients and the coefficients are memory mapped rather
+ * than read so that opening even a very large model is nearly instant and all of the processes on a
+ * machine that use the same model share a single copy in the page cache.
+ * <p/>
+ * There are two layouts.  The dense layout is:
+ * <pre>
+ *     int magic
+ *     int layout = 1
+ *     int bytes per coefficient (4 or 8)
+ *     int categories
+ *     int features
+ *     utf[categories] category names
+ *     padding to a multiple of 8 bytes
+ *     coefficients[features][categories - 1]
+ * </pre>
+ * The coefficients for each feature are together since scoring a sparse vector reads the
+ * coefficients for all categories of each non-zero feature.  The first category has no
+ * coefficients, as in OnlineLogisticRegression.  Any regularization that the model still owes is
+ * applied before the coefficients are written, as with {@link LinearScorer}.
+ * <p/>
+ * The sparse layout leaves out coefficients that are close to zero, which with L1 regularization
+ * is usually most of them.  The coefficients that are kept can also be quantized to half precision
+ * floats or to bytes with a scale for each category.
+ * <pre>
+ *     int magic
+ *     int layout = 2
+ *     int bytes per coefficient (1, 2, 4 or 8)
+ *     int categories
+ *     int features
+ *     utf[categories] category names
+ *     padding to a multiple of 8 bytes
+ *     int non-zero coefficients
+ *     float[categories - 1] scales for byte coefficients
+ *     padding
+ *     int[features + 1] where the coefficients of each feature start
+ *     padding
+ *     short[non-zero coefficients] category - 1 for each coefficient
+ *     padding
+ *     coefficients[non-zero coefficients]
+ * </pre>
+ * All numbers are big-endian.
+ */
+class MappedModel {
+    private static final int MAGIC = 0x4d4d444c;
+    private static final int DENSE = 1;
+    private static final int SPARSE = 2;
+
+    // maximum size of each mapped part of the coefficients
+    private static final int SEGMENT = 1 << 30;
+
+    private MappedModel() {
+    }
+
+    /**
+     * How the coefficients of a sparse model are stored.
+     */
+    enum Encoding {
+        DOUBLE(8), FLOAT(4), HALF(2), BYTE(1);
+
+        private final int width;
+
+        Encoding(int width) {
+            this.width = width;
+        }
+
+        static Encoding forWidth(int width) {
+            for (Encoding encoding : values()) {
+                if (encoding.width == width) {
+                    return encoding;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Writes the scoring part of a model.
+     *
+     * @param classifier  The model to write.
+     * @param file        Where to write it.
+     * @param floatValues If true, coefficients are written in single precision.
+     */
+    static void write(Classifier classifier, File file, boolean floatValues) throws IOException {
+        OnlineLogisticRegression model = classifier.getModel();
+        Matrix beta = LinearScorer.caughtUp(model).getBeta();
+        int categories = model.numCategories();
+        int features = model.numFeatures();
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(DENSE);
+            writeHeader(out, classifier, floatValues ? 4 : 8);
+
+            for (int j = 0; j < features; j++) {
+                for (int k = 0; k < categories - 1; k++) {
+                    if (floatValues) {
+                        out.writeFloat((float) beta.getQuick(k, j));
+                    } else {
+                        out.writeDouble(beta.getQuick(k, j));
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the scoring part of a model leaving out small coefficients.
+     *
+     * @param classifier The model to write.
+     * @param file       Where to write it.
+     * @param encoding   How to store the coefficients that are kept.
+     * @param threshold  Coefficients with magnitude no more than this are left out.
+     */
+    static void writeSparse(Classifier classifier, File file, Encoding encoding, double threshold) throws IOException {
+        OnlineLogisticRegression model = classifier.getModel();
+        Matrix beta = LinearScorer.caughtUp(model).getBeta();
+        int categories = model.numCategories();
+        int features = model.numFeatures();
+
+        // find what is kept and the largest magnitude in each row for scaling bytes
+        int[] offsets = new int[features + 1];
+        float[] scales = new float[categories - 1];
+        for (int j = 0; j < features; j++) {
+            int n = 0;
+            for (int k = 0; k < categories - 1; k++) {
+                double w = beta.getQuick(k, j);
+                if (Math.abs(w) > threshold) {
+                    n++;
+                    scales[k] = (float) Math.max(scales[k], Math.abs(w) / 127);
+                }
+            }
+            if (offsets[j] + (long) n > Integer.MAX_VALUE / encoding.width) {
+                throw new IOException("Too many coefficients for a sparse model");
+            }
+            offsets[j + 1] = offsets[j] + n;
+        }
+        for (int k = 0; k < categories - 1; k++) {
+            if (encoding != Encoding.BYTE || scales[k] == 0) {
+                scales[k] = 1;
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(SPARSE);
+            writeHeader(out, classifier, encoding.width);
+
+            out.writeInt(offsets[features]);
+            for (float scale : scales) {
+                out.writeFloat(scale);
+            }
+            pad(out);
+
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            pad(out);
+
+            for (int j = 0; j < features; j++) {
+                for (int k = 0; k < categories - 1; k++) {
+                    if (Math.abs(beta.getQuick(k, j)) > threshold) {
+                        out.writeShort(k);
+                    }
+                }
+            }
+            pad(out);
+
+            for (int j = 0; j < features; j++) {
+                for (int k = 0; k < categories - 1; k++) {
+                    double w = beta.getQuick(k, j);
+                    if (Math.abs(w) > threshold) {
+                        switch (encoding) {
+                            case DOUBLE:
+                                out.writeDouble(w);
+                                break;
+                            case FLOAT:
+                                out.writeFloat((float) w);
+                                break;
+                            case HALF:
+                                out.writeShort(toHalf((float) w));
+                                break;
+                            case BYTE:
+                                out.writeByte((int) Math.max(-127, Math.min(127, Math.round(w / scales[k]))));
+                                break;
+                        }
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, Classifier classifier, int width) throws IOException {
+        OnlineLogisticRegression model = classifier.getModel();
+        if (model.numCategories() > Short.MAX_VALUE) {
+            throw new IOException("Too many categories for a scoring model");
+        }
+        out.writeInt(width);
+        out.writeInt(model.numCategories());
+        out.writeInt(model.numFeatures());
+        for (String category : classifier.getCategories()) {
+            out.writeUTF(category);
+        }
+        pad(out);
+    }
+
+    private static void pad(DataOutputStream out) throws IOException {
+        while (out.size() % 8 != 0) {
+            out.writeByte(0);
+        }
+    }
+
+    /**
+     * Maps a model file for scoring.  The file stays mapped until the scorer is garbage collected.
+     */
+    static LinearScorer open(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a scoring model: " + file);
+            }
+            int layout = in.readInt();
+            if (layout != DENSE && layout != SPARSE) {
+                throw new IOException(String.format("Unknown scoring model layout %d in %s", layout, file));
+            }
+            int width = in.readInt();
+            if (layout == DENSE ? width != 4 && width != 8 : Encoding.forWidth(width) == null) {
+                throw new IOException(String.format("Bad coefficient size %d in %s", width, file));
+            }
+            int categories = in.readInt();
+            int features = in.readInt();
+            List<String> names = Lists.newArrayList();
+            for (int k = 0; k < categories; k++) {
+                names.add(in.readUTF());
+            }
+            long start = align(in.getFilePointer());
+
+            if (layout == SPARSE) {
+                in.seek(start);
+                return new LinearScorer(names, openSparse(in, file, Encoding.forWidth(width), categories, features));
+            }
+
+            long rowBytes = (long) width * (categories - 1);
+            if (in.length() < start + rowBytes * features) {
+                throw new IOException("Truncated scoring model: " + file);
+            }
+
+            MappedCoefficients coefficients = new MappedCoefficients(categories, features, width == 4, rowBytes);
+            FileChannel channel = in.getChannel();
+            for (int s = 0; s < coefficients.segments.length; s++) {
+                long first = (long) s * coefficients.rowsPerSegment;
+                long rows = Math.min(coefficients.rowsPerSegment, features - first);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start + first * rowBytes, rows * rowBytes);
+                if (width == 4) {
+                    coefficients.floatSegments[s] = buffer.asFloatBuffer();
+                } else {
+                    coefficients.segments[s] = buffer.asDoubleBuffer();
+                }
+            }
+            return new LinearScorer(names, coefficients);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static LinearScorer.Coefficients openSparse(RandomAccessFile in, File file, Encoding encoding,
+                                                        int categories, int features) throws IOException {
+        int nonZeros = in.readInt();
+        float[] scales = new float[categories - 1];
+        for (int k = 0; k < categories - 1; k++) {
+            scales[k] = in.readFloat();
+        }
+
+        long offsets = align(in.getFilePointer());
+        long rows = align(offsets + 4L * (features + 1));
+        long values = align(rows + 2L * nonZeros);
+        long end = values + (long) encoding.width * nonZeros;
+        if (in.length() < end) {
+            throw new IOException("Truncated scoring model: " + file);
+        }
+
+        FileChannel channel = in.getChannel();
+        return new SparseCoefficients(categories, features, encoding, scales,
+                map(channel, offsets, rows - offsets),
+                map(channel, rows, values - rows),
+                map(channel, values, end - values));
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long start, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /**
+     * Converts to a half precision float, rounding to nearest.
+     */
+    static short toHalf(float x) {
+        int bits = Float.floatToIntBits(x);
+        int sign = (bits >>> 16) & 0x8000;
+        int magnitude = bits & 0x7fffffff;
+        int rounded = magnitude + 0x1000;
+        if (magnitude >= 0x7f800000) {
+            // infinity or NaN
+            return (short) (sign | 0x7c00 | (magnitude > 0x7f800000 ? 0x200 : 0));
+        } else if (magnitude >= 0x47800000) {
+            // too big, so overflow to infinity
+            return (short) (sign | 0x7c00);
+        } else if (rounded >= 0x47800000) {
+            // only too big after rounding, so use the largest finite value
+            return (short) (sign | 0x7bff);
+        } else if (rounded >= 0x38800000) {
+            // normal number, rebias the exponent from 127 to 15
+            return (short) (sign | ((rounded - 0x38000000) >>> 13));
+        } else if (magnitude < 0x33000000) {
+            // too small even for a sub-normal number
+            return (short) sign;
+        } else {
+            // sub-normal number
+            int exponent = magnitude >>> 23;
+            int mantissa = (magnitude & 0x7fffff) | 0x800000;
+            return (short) (sign | ((mantissa + (0x800000 >>> (exponent - 102))) >>> (126 - exponent)));
+        }
+    }
+
+    /**
+     * Converts from a half precision float.
+     */
+    static float fromHalf(short h) {
+        int sign = (h & 0x8000) << 16;
+        int exponent = (h >>> 10) & 0x1f;
+        int mantissa = h & 0x3ff;
+        if (exponent == 0) {
+            float r = Math.scalb((float) mantissa, -24);
+            return sign == 0 ? r : -r;
+        } else if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        } else {
+            return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+        }
+    }
+
+    /**
+     * Coefficients stored as a list of non-zero coefficients for each feature.
+     */
+    private static class SparseCoefficients implements LinearScorer.Coefficients {
+        private final int categories;
+        private final int features;
+        private final Encoding encoding;
+        private final float[] scales;
+
+        private final IntBuffer offsets;
+        private final ShortBuffer rows;
+        private final ByteBuffer values;
+
+        // decoded values of all half precision numbers
+        private final float[] halves;
+
+        private SparseCoefficients(int categories, int features, Encoding encoding, float[] scales,
+                                   ByteBuffer offsets, ByteBuffer rows, ByteBuffer values) {
+            this.categories = categories;
+            this.features = features;
+            this.encoding = encoding;
+            this.scales = scales;
+            this.offsets = offsets.asIntBuffer();
+            this.rows = rows.asShortBuffer();
+            this.values = values;
+            if (encoding == Encoding.HALF) {
+                halves = new float[1 << 16];
+                for (int i = 0; i < halves.length; i++) {
+                    halves[i] = fromHalf((short) i);
+                }
+            } else {
+                halves = null;
+            }
+        }
+
+        public int numCategories() {
+            return categories;
+        }
+
+        public int numFeatures() {
+            return features;
+        }
+
+        /**
+         * The coefficients are in the page cache, only the table for half precision is on the heap.
+         */
+        public long footprint() {
+            return halves == null ? 0 : 4L * halves.length;
+        }
+
+        public void addTo(int feature, double value, double[] scores) {
+            int end = offsets.get(feature + 1);
+            for (int i = offsets.get(feature); i < end; i++) {
+                int k = rows.get(i);
+                switch (encoding) {
+                    case DOUBLE:
+                        scores[k + 1] += value * values.getDouble(8 * i);
+                        break;
+                    case FLOAT:
+                        scores[k + 1] += value * values.getFloat(4 * i);
+                        break;
+                    case HALF:
+                        scores[k + 1] += value * halves[values.getShort(2 * i) & 0xffff];
+                        break;
+                    case BYTE:
+                        scores[k + 1] += value * values.get(i) * scales[k];
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Coefficients read from mapped parts of a file.  Each part holds a whole number of features.
+     */
+    private static class MappedCoefficients implements LinearScorer.Coefficients {
+        private final int categories;
+        private final int features;
+        private final int rowsPerSegment;
+        private final DoubleBuffer[] segments;
+        private final FloatBuffer[] floatSegments;
+
+        private MappedCoefficients(int categories, int features, boolean floatValues, long rowBytes) {
+            this.categories = categories;
+            this.features = features;
+            this.rowsPerSegment = (int) Math.max(1, SEGMENT / Math.max(1, rowBytes));
+            int n = Math.max(1, (features + rowsPerSegment - 1) / rowsPerSegment);
+            segments = new DoubleBuffer[n];
+            floatSegments = floatValues ? new FloatBuffer[n] : null;
+        }
+
+        public int numCategories() {
+            return categories;
+        }
+
+        public int numFeatures() {
+            return features;
+        }
+
+        /**
+         * The coefficients are in the page cache, not on the heap.
+         */
+        public long footprint() {
+            return 0;
+        }
+
+        public void addTo(int feature, double value, double[] scores) {
+            int s = feature / rowsPerSegment;
+            int base = (feature - s * rowsPerSegment) * (categories - 1);
+            if (floatSegments != null) {
+                FloatBuffer row = floatSegments[s];
+                for (int k = 1; k < categories; k++) {
+                    scores[k] += value * row.get(base + k - 1);
+                }
+            } else {
+                DoubleBuffer row = segments[s];
+                for (int k = 1; k < categories; k++) {
+                    scores[k] += value * row.get(base + k - 1);
+                }
+            }
+        }
+    }
+}
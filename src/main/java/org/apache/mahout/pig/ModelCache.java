@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.impl.util.UDFContext;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Shares loaded models between all of the UDF instances in a JVM.
+ * <p/>
+ * Pig creates several instances of a UDF in each task and, with JVM reuse, many tasks run in the
+ * same JVM.  Rather than have each instance read and decode the same model, instances acquire a
+ * {@link Lease} on a model from this cache.  Models are identified by where they come from and when
+ * that was last modified so that a rewritten model is never confused with an old one.
+ * <p/>
+ * If several threads ask for a model that isn't loaded yet, one of them loads it and the others
+ * wait for the result.  Models that are not leased by anybody are kept until the total size of the
+ * cached models exceeds the memory budget, at which point the least recently used ones are dropped.
+ * Models that are leased are never dropped, even if that means going over budget.
+ * <p/>
+ * The budget in bytes can be set with the job property mahout.pig.model.cache.bytes.
+ */
+class ModelCache {
+    static final String BUDGET_PROPERTY = "mahout.pig.model.cache.bytes";
+    static final long DEFAULT_BUDGET = 1L << 30;
+
+    private static final ModelCache SHARED = new ModelCache(DEFAULT_BUDGET);
+
+    // in order of access, least recently used first
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+    private long budget;
+    private long size;
+
+    ModelCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the cache that is shared by the whole JVM.
+     */
+    static ModelCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Leases the model described by a source, loading it if it isn't already cached.
+     */
+    Lease acquire(final ModelSource source) throws IOException {
+        final Configuration conf = UDFContext.getUDFContext().getJobConf();
+        if (conf != null) {
+            setBudget(conf.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET));
+        }
+        return acquire(source.identity(conf), new Callable<LinearScorer>() {
+            public LinearScorer call() throws Exception {
+                return source.scorer(conf);
+            }
+        });
+    }
+
+    /**
+     * Leases the model with the given identity.  If it isn't cached, the loader is used to get it.
+     */
+    Lease acquire(Object identity, Callable<LinearScorer> loader) throws IOException {
+        Entry entry;
+        boolean mustLoad = false;
+        synchronized (this) {
+            entry = entries.get(identity);
+            if (entry == null) {
+                entry = new Entry(identity, loader);
+                entries.put(identity, entry);
+                mustLoad = true;
+            }
+            entry.references++;
+        }
+
+        if (mustLoad) {
+            entry.model.run();
+        }
+
+        LinearScorer model;
+        try {
+            model = entry.model.get();
+        } catch (InterruptedException e) {
+            release(entry);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for model to load", e);
+        } catch (ExecutionException e) {
+            failed(entry);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else {
+                throw new IOException("Could not load model", e.getCause());
+            }
+        }
+
+        synchronized (this) {
+            if (mustLoad) {
+                entry.bytes = model.footprint();
+                size += entry.bytes;
+                evict();
+            }
+        }
+        return new Lease(entry, model);
+    }
+
+    synchronized void setBudget(long budget) {
+        this.budget = budget;
+        evict();
+    }
+
+    /**
+     * Returns the number of bytes held by cached models.
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of models that are cached or being loaded.
+     */
+    synchronized int models() {
+        return entries.size();
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.references--;
+        evict();
+    }
+
+    private synchronized void failed(Entry entry) {
+        entry.references--;
+        // forget the failure so that the next attempt tries again
+        if (entries.get(entry.identity) == entry) {
+            entries.remove(entry.identity);
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> i = entries.values().iterator();
+        while (size > budget && i.hasNext()) {
+            Entry entry = i.next();
+            if (entry.references == 0 && entry.model.isDone()) {
+                i.remove();
+                size -= entry.bytes;
+            }
+        }
+    }
+
+    private static class Entry {
+        private final Object identity;
+        private final FutureTask<LinearScorer> model;
+        private int references;
+        private long bytes;
+
+        private Entry(Object identity, Callable<LinearScorer> loader) {
+            this.identity = identity;
+            this.model = new FutureTask<LinearScorer>(loader);
+        }
+    }
+
+    /**
+     * A hold on a cached model.  The model may be dropped from the cache once all leases on it are
+     * closed.
+     */
+    class Lease {
+        private final Entry entry;
+        private final LinearScorer model;
+        private boolean closed;
+
+        private Lease(Entry entry, LinearScorer model) {
+            this.entry = entry;
+            this.model = model;
+        }
+
+        LinearScorer model() {
+            return model;
+        }
+
+        void close() {
+            if (!closed) {
+                closed = true;
+                release(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.collect.Maps;
+import org.apache.hadoop.fs.Path;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Records where each model is in a sequence file of models so that a model can be read without
+ * reading all of the models before it.
+ * <p/>
+ * The index for a file of models is kept next to it with the same name plus a leading underscore
+ * and a trailing ".index" so that it is ignored as input by hadoop.  The index holds a magic number
+ * followed by the key and the position in the sequence file of each model.
+ */
+class ModelIndex {
+    private static final int MAGIC = 0x4d4f4458;
+
+    private final DataOutputStream out;
+
+    ModelIndex(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.out.writeInt(MAGIC);
+    }
+
+    /**
+     * Records that the model with the given key starts at the given position.
+     */
+    void add(String key, long position) throws IOException {
+        out.writeUTF(key);
+        out.writeLong(position);
+    }
+
+    void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Returns the name of the index for a file of models.
+     */
+    static Path indexFor(Path models) {
+        return new Path(models.getParent(), "_" + models.getName() + ".index");
+    }
+
+    /**
+     * Reads an index into a map from key to position.  If a key occurs more than once, the first
+     * position is kept to match what a scan of the models would find.
+     */
+    static Map<String, Long> read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a model index");
+        }
+
+        Map<String, Long> r = Maps.newHashMap();
+        while (true) {
+            String key;
+            try {
+                key = in.readUTF();
+            } catch (EOFException e) {
+                return r;
+            }
+            long position = in.readLong();
+            if (!r.containsKey(key)) {
+                r.put(key, position);
+            }
+        }
+    }
+}
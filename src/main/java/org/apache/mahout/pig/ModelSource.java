@@ -0,0 +1,343 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.collect.Lists;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.mahout.classifier.sgd.PolymorphicWritable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes where a model used for scoring comes from.  A model can either be read from a file
+ * with "file=path" or found by key in sequence files written by {@link PigModelStorage} with
+ * "sequence=glob, key=value".  A model that has been exported with {@link ExportModel} can be
+ * memory mapped from a local file with "mapped=path".  If the sequence files have indexes, the model is read directly,
+ * otherwise the keys in the files are scanned in order.
+ * <p/>
+ * The files that match a glob and their parsed indexes are kept for the whole JVM so that looking
+ * up many keys in the same models only reads each index once.  A source finds its files the first
+ * time it is used and keeps them, as do all of the sources made from a repository with
+ * {@link #withKey(String)}, so that a lookup by key doesn't list the files again.
+ */
+class ModelSource {
+    // how many sets of sequence files have their indexes kept
+    private static final int MAX_CATALOGS = 16;
+
+    // catalogs of recently used sequence files by identity, least recently used first
+    private static final Map<Object, Catalog> CATALOGS = new LinkedHashMap<Object, Catalog>(2 * MAX_CATALOGS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Catalog> eldest) {
+            return size() > MAX_CATALOGS;
+        }
+    };
+
+    private final String file;
+    private final String mapped;
+    private final String sequence;
+    private final String key;
+
+    // the source that this was made from with withKey, if any
+    private final ModelSource repository;
+    private Catalog resolved;
+
+    /**
+     * Takes the options that describe the model out of a map of options.
+     */
+    ModelSource(Map<String, String> options) {
+        if (options.containsKey("sequence")) {
+            sequence = options.get("sequence");
+            file = null;
+            mapped = null;
+            repository = null;
+            if (options.containsKey("key")) {
+                key = options.get("key");
+                options.remove("sequence");
+                options.remove(("key"));
+            } else {
+                throw new BadClassifierSpecException("Must specify key for model in a sequence file");
+            }
+        } else if (options.containsKey("file")) {
+            file = options.get("file");
+            mapped = null;
+            sequence = null;
+            key = null;
+            repository = null;
+            options.remove("file");
+        } else if (options.containsKey("mapped")) {
+            mapped = options.get("mapped");
+            file = null;
+            sequence = null;
+            key = null;
+            repository = null;
+            options.remove("mapped");
+        } else {
+            throw new BadClassifierSpecException("Must specify existing model");
+        }
+    }
+
+    private ModelSource(String sequence, String key, ModelSource repository) {
+        this.file = null;
+        this.mapped = null;
+        this.sequence = sequence;
+        this.key = key;
+        this.repository = repository;
+    }
+
+    /**
+     * Takes the location of a set of models out of a map of options.  The result has no key and
+     * models are found with {@link #withKey(String)}.
+     */
+    static ModelSource repository(Map<String, String> options) {
+        if (!options.containsKey("sequence")) {
+            throw new BadClassifierSpecException("Must specify sequence files that hold the models");
+        }
+        if (options.containsKey("key")) {
+            throw new BadClassifierSpecException("Can't specify a key when models are selected by key field");
+        }
+        return new ModelSource(options.remove("sequence"), null, null);
+    }
+
+    /**
+     * Returns the source for the model with a particular key in the same sequence files.  The files
+     * are only found once for all of the keys.
+     */
+    ModelSource withKey(String key) {
+        return new ModelSource(sequence, key, this);
+    }
+
+    boolean isFile() {
+        return file != null;
+    }
+
+    /**
+     * Returns a value that identifies the model as it is now.  This includes where the model is
+     * stored and when that storage was last modified so that a model that is rewritten has a
+     * different identity.
+     */
+    Object identity(Configuration conf) throws IOException {
+        if (mapped != null) {
+            File f = new File(mapped).getAbsoluteFile();
+            return Arrays.<Object>asList(f.toURI().toString(), f.lastModified());
+        }
+
+        FileSystem fs = FileSystem.get(conf);
+        if (file != null) {
+            Path path = fs.makeQualified(new Path(file));
+            return Arrays.<Object>asList(path.toString(), fs.getFileStatus(path).getModificationTime());
+        } else {
+            return Arrays.<Object>asList(catalog(fs).identity, key);
+        }
+    }
+
+    /**
+     * Returns the latest modification time of the files and directories that match a glob.
+     */
+    private static long lastModified(FileSystem fs, Path glob) throws IOException {
+        long modified = 0;
+        FileStatus[] matches = fs.globStatus(glob);
+        if (matches != null) {
+            for (FileStatus status : matches) {
+                modified = Math.max(modified, status.getModificationTime());
+                if (status.isDir()) {
+                    for (FileStatus child : fs.listStatus(status.getPath())) {
+                        modified = Math.max(modified, child.getModificationTime());
+                    }
+                }
+            }
+        }
+        return modified;
+    }
+
+    /**
+     * Returns the catalog of the sequence files.  The files are found the first time this is called
+     * and the catalog is only read if the files have changed since it was last read.
+     */
+    Catalog catalog(FileSystem fs) throws IOException {
+        if (repository != null) {
+            return repository.catalog(fs);
+        }
+        synchronized (this) {
+            if (resolved == null) {
+                Path path = fs.makeQualified(new Path(sequence));
+                Object identity = Arrays.<Object>asList(path.toString(), lastModified(fs, path));
+                synchronized (CATALOGS) {
+                    resolved = CATALOGS.get(identity);
+                    if (resolved == null) {
+                        resolved = new Catalog(identity, fs, path);
+                        CATALOGS.put(identity, resolved);
+                    }
+                }
+            }
+            return resolved;
+        }
+    }
+
+    /**
+     * Gets the model ready for scoring.
+     */
+    LinearScorer scorer(Configuration conf) throws IOException {
+        if (mapped != null) {
+            return MappedModel.open(new File(mapped));
+        } else {
+            return new LinearScorer(load(conf));
+        }
+    }
+
+    /**
+     * Reads the full model.  This isn't possible for models that have been exported for scoring.
+     */
+    Classifier load(Configuration conf) throws IOException {
+        if (mapped != null) {
+            throw new BadClassifierSpecException("Model in " + mapped + " can only be used for scoring");
+        } else if (file != null) {
+            final FSDataInputStream in = FileSystem.get(conf).open(new Path(file));
+            try {
+                return PolymorphicWritable.read(in, Classifier.class);
+            } finally {
+                in.close();
+            }
+        } else {
+            FileSystem fs = FileSystem.get(conf);
+            Catalog catalog = catalog(fs);
+            for (int i = 0; i < catalog.files.size(); i++) {
+                Path models = catalog.files.get(i);
+                Map<String, Long> index = catalog.indexes.get(i);
+                Classifier r = index != null ? seek(fs, conf, models, index) : scan(fs, conf, models);
+                if (r != null) {
+                    return r;
+                }
+            }
+            throw new IOException(String.format("Can't find model with correct key = %s out of %d files searched\n", key, catalog.files.size()));
+        }
+    }
+
+    /**
+     * Lists the files that match a glob.  Directories are replaced by the files they contain and
+     * files that start with an underscore, such as indexes, are ignored.
+     */
+    private static List<Path> modelFiles(FileSystem fs, Path glob) throws IOException {
+        PathFilter visible = new PathFilter() {
+            public boolean accept(Path path) {
+                return !path.getName().startsWith("_");
+            }
+        };
+
+        List<Path> r = Lists.newArrayList();
+        FileStatus[] matches = fs.globStatus(glob, visible);
+        if (matches != null) {
+            for (FileStatus status : matches) {
+                if (status.isDir()) {
+                    for (FileStatus child : fs.listStatus(status.getPath(), visible)) {
+                        if (!child.isDir()) {
+                            r.add(child.getPath());
+                        }
+                    }
+                } else {
+                    r.add(status.getPath());
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Reads the model directly using the index for a file of models.  Returns null if the index
+     * says that the model isn't in this file.
+     */
+    private Classifier seek(FileSystem fs, Configuration conf, Path models, Map<String, Long> index) throws IOException {
+        Long position = index.get(key);
+        if (position == null) {
+            return null;
+        }
+
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs, models, conf);
+        try {
+            reader.seek(position);
+            Text k = new Text();
+            Classifier r = new Classifier();
+            if (!reader.next(k, r) || !key.equals(k.toString())) {
+                throw new IOException(String.format("Index %s doesn't match models in %s", ModelIndex.indexFor(models), models));
+            }
+            return r;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads keys from a file of models without an index until the right one is found.  Only the
+     * model with the right key is deserialized.  Returns null if the model isn't in this file.
+     */
+    private Classifier scan(FileSystem fs, Configuration conf, Path models) throws IOException {
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs, models, conf);
+        try {
+            Text k = new Text();
+            while (reader.next(k)) {
+                if (key.equals(k.toString())) {
+                    Classifier r = new Classifier();
+                    reader.getCurrentValue(r);
+                    return r;
+                }
+            }
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The files of models that match a glob, in the order they are searched, along with the index
+     * of each file or null if it has none.
+     */
+    static class Catalog {
+        // where the files are and when they were last modified
+        private final Object identity;
+        private final List<Path> files;
+        private final List<Map<String, Long>> indexes = Lists.newArrayList();
+
+        private Catalog(Object identity, FileSystem fs, Path glob) throws IOException {
+            this.identity = identity;
+            files = modelFiles(fs, glob);
+            for (Path models : files) {
+                Path index = ModelIndex.indexFor(models);
+                if (fs.exists(index)) {
+                    FSDataInputStream in = fs.open(index);
+                    try {
+                        indexes.add(ModelIndex.read(in));
+                    } finally {
+                        in.close();
+                    }
+                } else {
+                    indexes.add(null);
+                }
+            }
+        }
+    }
+}
@@ -16,13 +16,16 @@
 
 package org.apache.mahout.pig;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.OutputFormat;
 import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
-import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.mahout.classifier.sgd.PolymorphicWritable;
 import org.apache.pig.ResourceSchema;
 import org.apache.pig.StoreFunc;
@@ -36,6 +39,10 @@ import java.io.IOException;
 
 /**
  * Stores models in files named by a well known prefix and the reduce key.
+ * <p/>
+ * Models are written to sequence files.  Next to each sequence file, an index is written that
+ * records where each model starts so that {@link LogisticRegressionEval} can go straight to the
+ * model it needs.  See {@link ModelIndex}.
  */
 public class PigModelStorage extends StoreFunc {
     private RecordWriter output;
@@ -77,7 +84,7 @@ public class PigModelStorage extends StoreFunc {
      */
     @Override
     public OutputFormat getOutputFormat() throws IOException {
-        return new SequenceFileOutputFormat();
+        return new IndexedModelOutputFormat();
     }
 
     /**
@@ -133,4 +140,43 @@ public class PigModelStorage extends StoreFunc {
             throw new ImpossibleStateError("Interrupted operation ... don't know what to do", e);
         }
     }
+
+    /**
+     * Writes models to an uncompressed sequence file and records the position of each in an index.
+     */
+    public static class IndexedModelOutputFormat extends FileOutputFormat<Text, Classifier> {
+        @Override
+        public RecordWriter<Text, Classifier> getRecordWriter(TaskAttemptContext context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            Path file = getDefaultWorkFile(context, "");
+            return writer(file.getFileSystem(conf), conf, file);
+        }
+
+        /**
+         * Opens a file of models and its index.  Compression is always off, whatever the job
+         * configuration says, because in a block compressed file only the first record of each
+         * block can be found by position.
+         */
+        static RecordWriter<Text, Classifier> writer(FileSystem fs, Configuration conf, Path file) throws IOException {
+            final SequenceFile.Writer models = SequenceFile.createWriter(fs, conf, file, Text.class, Classifier.class,
+                    SequenceFile.CompressionType.NONE);
+            final ModelIndex index = new ModelIndex(fs.create(ModelIndex.indexFor(file), false));
+            return new RecordWriter<Text, Classifier>() {
+                @Override
+                public void write(Text key, Classifier value) throws IOException {
+                    index.add(key.toString(), models.getLength());
+                    models.append(key, value);
+                }
+
+                @Override
+                public void close(TaskAttemptContext context) throws IOException {
+                    try {
+                        models.close();
+                    } finally {
+                        index.close();
+                    }
+                }
+            };
+        }
+    }
 }
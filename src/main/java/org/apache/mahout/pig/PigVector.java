@@ -16,17 +16,95 @@
 
 package org.apache.mahout.pig;
 
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
 import org.apache.pig.data.DataByteArray;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.Iterator;
 
 /**
  * Wraps a pig tuple around a Mahout vector.
+ * <p/>
+ * Vectors are passed around in pig as byte arrays in a compact format.  The format starts with a
+ * marker byte that can never be the first byte of a serialized VectorWritable, followed by a version
+ * byte, a flag byte and the cardinality and number of non-zero elements as varints.  Sparse vectors
+ * then have the byte length of the index section followed by the indices in ascending order, each
+ * encoded as a varint delta from the previous index.  Last come the values, either as 8 byte doubles
+ * or as 4 byte floats.  Dense vectors omit the index section.
+ * <p/>
+ * Bytes written by older versions of this class using VectorWritable can still be decoded.
+ * <p/>
+ * An {@link Accessor} can be used to look at the elements of an encoded vector in place without
+ * building a Mahout vector at all.
  */
 public class PigVector {
+    /**
+     * VectorWritable starts with a flag byte that only uses the low four bits so this can't be confused.
+     */
+    static final byte MAGIC = (byte) 0xA7;
+    static final byte VERSION = 1;
+
+    static final int FLAG_FLOAT = 0x01;
+    static final int FLAG_DENSE = 0x02;
+
+    private static final int HEADER_SIZE = 3;
+    private static final int MAX_VARINT_SIZE = 5;
+
     public static DataByteArray toBytes(Vector v1) {
+        return toBytes(v1, false);
+    }
+
+    /**
+     * Encodes a vector in the compact format.
+     *
+     * @param v1          The vector to encode.
+     * @param floatValues If true, values are stored with single precision.
+     * @return The encoded vector.
+     */
+    public static DataByteArray toBytes(Vector v1, boolean floatValues) {
+        int n = v1.size();
+        if (v1.isDense()) {
+            byte[] buf = new byte[maxEncodedSize(n, floatValues)];
+            int offset = writeHeader(buf, FLAG_DENSE | (floatValues ? FLAG_FLOAT : 0), n, n);
+            for (int i = 0; i < n; i++) {
+                offset = writeValue(buf, offset, v1.getQuick(i), floatValues);
+            }
+            return new DataByteArray(Arrays.copyOf(buf, offset));
+        } else {
+            int[] indices = new int[v1.getNumNondefaultElements()];
+            int k = 0;
+            Iterator<Vector.Element> i = v1.iterateNonZero();
+            while (i.hasNext()) {
+                Vector.Element element = i.next();
+                if (element.get() != 0) {
+                    if (k == indices.length) {
+                        indices = Arrays.copyOf(indices, 2 * k + 1);
+                    }
+                    indices[k++] = element.index();
+                }
+            }
+            if (!v1.isSequentialAccess()) {
+                Arrays.sort(indices, 0, k);
+            }
+            double[] values = new double[k];
+            for (int j = 0; j < k; j++) {
+                values[j] = v1.getQuick(indices[j]);
+            }
+            byte[] buf = new byte[maxEncodedSize(k, floatValues)];
+            int length = writeSparse(n, indices, values, k, floatValues, buf);
+            return new DataByteArray(Arrays.copyOf(buf, length));
+        }
+    }
+
+    /**
+     * Encodes a vector the way VectorWritable does.  This is handy when vectors are to be stored
+     * in files that will be read by Mahout programs.
+     */
+    public static DataByteArray toWritableBytes(Vector v1) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(baos);
         try {
@@ -39,12 +117,302 @@ public class PigVector {
     }
 
     public static Vector fromBytes(DataByteArray data) {
+        return fromBytes(data.get(), 0, data.get().length);
+    }
+
+    public static Vector fromBytes(byte[] data, int offset, int length) {
+        if (length > 0 && data[offset] == MAGIC) {
+            Accessor in = new Accessor().wrap(data, offset, length);
+            Vector r;
+            if (in.isDense()) {
+                r = new DenseVector(in.size());
+            } else {
+                r = new RandomAccessSparseVector(in.size(), Math.max(in.getNumNonZeroElements(), 1));
+            }
+            while (in.next()) {
+                r.setQuick(in.index(), in.value());
+            }
+            return r;
+        } else {
+            return fromWritableBytes(data, offset, length);
+        }
+    }
+
+    private static Vector fromWritableBytes(byte[] data, int offset, int length) {
         try {
             VectorWritable r = new VectorWritable();
-            r.readFields(new DataInputStream(new ByteArrayInputStream(data.get())));
+            r.readFields(new DataInputStream(new ByteArrayInputStream(data, offset, length)));
             return r.get();
         } catch (IOException e) {
             throw new ImpossibleStateError("Can't have error in BAIS", e);
         }
     }
+
+    /**
+     * Returns an upper bound on the number of bytes needed to encode a vector with the given number of
+     * non-zero elements.
+     */
+    public static int maxEncodedSize(int nonZeros, boolean floatValues) {
+        return HEADER_SIZE + 3 * MAX_VARINT_SIZE + nonZeros * (MAX_VARINT_SIZE + (floatValues ? 4 : 8));
+    }
+
+    /**
+     * Encodes a sparse vector directly from primitive arrays.  This avoids building a Mahout vector
+     * when the caller already has the non-zero elements at hand.
+     *
+     * @param cardinality The size of the vector.
+     * @param indices     Indices of the non-zero elements in strictly ascending order.
+     * @param values      Values of the non-zero elements.
+     * @param n           How many elements of indices and values are to be used.
+     * @param floatValues If true, values are stored with single precision.
+     * @param out         Buffer to write to.  Must have at least {@link #maxEncodedSize(int, boolean)} bytes.
+     * @return The number of bytes written.
+     */
+    public static int writeSparse(int cardinality, int[] indices, double[] values, int n, boolean floatValues, byte[] out) {
+        int offset = writeHeader(out, floatValues ? FLAG_FLOAT : 0, cardinality, n);
+
+        int indexBytes = 0;
+        int last = 0;
+        for (int i = 0; i < n; i++) {
+            indexBytes += varintSize(indices[i] - last);
+            last = indices[i];
+        }
+        offset = writeVarint(out, offset, indexBytes);
+
+        last = 0;
+        for (int i = 0; i < n; i++) {
+            offset = writeVarint(out, offset, indices[i] - last);
+            last = indices[i];
+        }
+        for (int i = 0; i < n; i++) {
+            offset = writeValue(out, offset, values[i], floatValues);
+        }
+        return offset;
+    }
+
+    private static int writeHeader(byte[] out, int flags, int cardinality, int nonZeros) {
+        out[0] = MAGIC;
+        out[1] = VERSION;
+        out[2] = (byte) flags;
+        int offset = writeVarint(out, HEADER_SIZE, cardinality);
+        return writeVarint(out, offset, nonZeros);
+    }
+
+    private static int writeValue(byte[] out, int offset, double value, boolean floatValues) {
+        if (floatValues) {
+            int bits = Float.floatToRawIntBits((float) value);
+            out[offset] = (byte) (bits >>> 24);
+            out[offset + 1] = (byte) (bits >>> 16);
+            out[offset + 2] = (byte) (bits >>> 8);
+            out[offset + 3] = (byte) bits;
+            return offset + 4;
+        } else {
+            long bits = Double.doubleToRawLongBits(value);
+            for (int i = 0; i < 8; i++) {
+                out[offset + i] = (byte) (bits >>> (56 - 8 * i));
+            }
+            return offset + 8;
+        }
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarint(byte[] out, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Reads an encoded vector in place.  A single accessor can be reused for many vectors by calling
+     * one of the wrap methods.  Elements are visited in ascending index order for vectors in the
+     * compact format.
+     * <p/>
+     * Typical use looks like this:
+     * <pre>
+     *     Accessor v = new Accessor();
+     *     v.wrap(bytes);
+     *     while (v.next()) {
+     *         sum += v.value() * weights[v.index()];
+     *     }
+     * </pre>
+     */
+    public static class Accessor {
+        private byte[] data;
+        private int cardinality;
+        private int nonZeros;
+        private boolean floatValues;
+        private boolean dense;
+
+        private int indexStart;
+        private int valueStart;
+
+        // iteration state
+        private int position;
+        private int count;
+        private int index;
+        private double value;
+
+        // used only for bytes that were written by VectorWritable
+        private Vector legacy;
+        private Iterator<Vector.Element> legacyElements;
+
+        public Accessor wrap(DataByteArray bytes) {
+            return wrap(bytes.get(), 0, bytes.get().length);
+        }
+
+        public Accessor wrap(byte[] bytes, int offset, int length) {
+            data = bytes;
+            if (length > 0 && bytes[offset] == MAGIC) {
+                legacy = null;
+                legacyElements = null;
+
+                if (bytes[offset + 1] != VERSION) {
+                    throw new IllegalArgumentException("Unknown vector format version " + bytes[offset + 1]);
+                }
+                int flags = bytes[offset + 2];
+                floatValues = (flags & FLAG_FLOAT) != 0;
+                dense = (flags & FLAG_DENSE) != 0;
+
+                position = offset + HEADER_SIZE;
+                cardinality = readVarint();
+                nonZeros = readVarint();
+                if (dense) {
+                    indexStart = position;
+                    valueStart = position;
+                } else {
+                    int indexBytes = readVarint();
+                    indexStart = position;
+                    valueStart = position + indexBytes;
+                }
+            } else {
+                legacy = fromWritableBytes(bytes, offset, length);
+                cardinality = legacy.size();
+                nonZeros = legacy.getNumNondefaultElements();
+                dense = legacy.isDense();
+                floatValues = false;
+            }
+            reset();
+            return this;
+        }
+
+        /**
+         * Restarts iteration from the first element.
+         */
+        public void reset() {
+            count = 0;
+            index = -1;
+            value = 0;
+            if (legacy != null) {
+                legacyElements = legacy.iterateNonZero();
+            } else {
+                position = indexStart;
+            }
+        }
+
+        /**
+         * Advances to the next stored element.
+         *
+         * @return false if there are no more elements.
+         */
+        public boolean next() {
+            if (legacy != null) {
+                if (legacyElements.hasNext()) {
+                    Vector.Element element = legacyElements.next();
+                    index = element.index();
+                    value = element.get();
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+
+            if (count >= nonZeros) {
+                return false;
+            }
+            if (dense) {
+                index = count;
+            } else {
+                index = count == 0 ? readVarint() : index + readVarint();
+            }
+            value = readValue(count);
+            count++;
+            return true;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        public double value() {
+            return value;
+        }
+
+        public int size() {
+            return cardinality;
+        }
+
+        /**
+         * Returns the number of stored elements.  For bytes written by VectorWritable, this may be an
+         * over-estimate.
+         */
+        public int getNumNonZeroElements() {
+            return nonZeros;
+        }
+
+        public boolean isDense() {
+            return dense;
+        }
+
+        /**
+         * Computes the dot product with a dense array.  This restarts iteration.
+         */
+        public double dot(double[] weights) {
+            reset();
+            double sum = 0;
+            while (next()) {
+                sum += value * weights[index];
+            }
+            reset();
+            return sum;
+        }
+
+        private double readValue(int k) {
+            if (floatValues) {
+                int offset = valueStart + 4 * k;
+                int bits = ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                        | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+                return Float.intBitsToFloat(bits);
+            } else {
+                int offset = valueStart + 8 * k;
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits = (bits << 8) | (data[offset + i] & 0xFF);
+                }
+                return Double.longBitsToDouble(bits);
+            }
+        }
+
+        private int readVarint() {
+            int r = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                r |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return r;
+        }
+    }
 }
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.Vector;
+
+import java.util.Iterator;
+
+/**
+ * Trains the same model as OnlineLogisticRegression with an L1 prior, but keeps everything in
+ * primitive arrays so that the cost of a training step depends only on the number of non-zero
+ * elements in the example.
+ * <p/>
+ * The learning rate follows the same schedule as Mahout's, including per-term annealing.  As in
+ * Mahout, the prior is applied lazily.  The step at which each feature was last regularized is
+ * kept and, when an example next has that feature, all of the missed regularization is applied at
+ * once.  Unlike Mahout, the coefficients of a feature are stored together, and the features of the
+ * current example are copied out once so that the example is only iterated a single time.
+ * <p/>
+ * With two categories, training gives the same coefficients as OnlineLogisticRegression up to
+ * rounding.  With more categories, Mahout only catches up the prior for the coefficients of the
+ * second category, while this catches up all of them.
+ * <p/>
+ * The model is turned into an OnlineLogisticRegression by {@link #exportTo(OnlineLogisticRegression)}
+ * so that it can be stored as a {@link Classifier}.
+ */
+class SparseLogisticRegression {
+    // the same schedule and defaults as OnlineLogisticRegression
+    private static final double DECAY_FACTOR = 1 - 1e-3;
+    private static final int PER_TERM_ANNEALING_OFFSET = 20;
+
+    private double learningRate = 1;
+    private int stepOffset = 10;
+    private double decayExponent = 0.5;
+    private double lambda = 1e-5;
+
+    private final int numCategories;
+    private final int numFeatures;
+
+    // the coefficients of feature j for categories 1 and up are at j * rows and following
+    private final int rows;
+    private final double[] beta;
+
+    // the step at which each feature was last regularized and how many examples have had it
+    private final int[] lastUpdate;
+    private final int[] updateCounts;
+    private int step;
+
+    // the non-zero elements of the current example and the scores of each category
+    private int[] indexes = new int[64];
+    private double[] values = new double[64];
+    private final double[] scores;
+
+    SparseLogisticRegression(int numCategories, int numFeatures) {
+        this.numCategories = numCategories;
+        this.numFeatures = numFeatures;
+        rows = numCategories - 1;
+        beta = new double[numFeatures * rows];
+        lastUpdate = new int[numFeatures];
+        updateCounts = new int[numFeatures];
+        scores = new double[numCategories];
+    }
+
+    SparseLogisticRegression learningRate(double learningRate) {
+        this.learningRate = learningRate;
+        return this;
+    }
+
+    SparseLogisticRegression decayExponent(double decayExponent) {
+        this.decayExponent = decayExponent;
+        return this;
+    }
+
+    SparseLogisticRegression stepOffset(int stepOffset) {
+        this.stepOffset = stepOffset;
+        return this;
+    }
+
+    SparseLogisticRegression lambda(double lambda) {
+        this.lambda = lambda;
+        return this;
+    }
+
+    int numCategories() {
+        return numCategories;
+    }
+
+    int numFeatures() {
+        return numFeatures;
+    }
+
+    int getStep() {
+        return step;
+    }
+
+    double currentLearningRate() {
+        return learningRate * Math.pow(DECAY_FACTOR, step) * Math.pow(step + stepOffset, -decayExponent);
+    }
+
+    /**
+     * Takes one step of stochastic gradient descent on an example.
+     */
+    void train(int actual, Vector instance) {
+        double rate = currentLearningRate();
+        int n = load(instance);
+
+        // catch up on the prior before the coefficients are used
+        for (int i = 0; i < n; i++) {
+            regularize(indexes[i], rate);
+        }
+
+        probabilities(n);
+
+        // scores now holds the gradient for each category
+        for (int k = 1; k < numCategories; k++) {
+            scores[k] = (k == actual ? 1 : 0) - scores[k];
+        }
+        for (int i = 0; i < n; i++) {
+            int j = indexes[i];
+            double x = rate * perTermLearningRate(j) * values[i];
+            int base = j * rows;
+            for (int k = 0; k < rows; k++) {
+                beta[base + k] += scores[k + 1] * x;
+            }
+            lastUpdate[j] = step;
+            updateCounts[j]++;
+        }
+        step++;
+    }
+
+    /**
+     * Returns the probability of each category.  As with OnlineLogisticRegression, the features of
+     * the example are first caught up on the regularization they are owed so that scores during
+     * validation are the same with either engine.
+     */
+    Vector classifyFull(Vector instance) {
+        double rate = currentLearningRate();
+        int n = load(instance);
+        for (int i = 0; i < n; i++) {
+            regularize(indexes[i], rate);
+        }
+        probabilities(n);
+        return new DenseVector(scores);
+    }
+
+    /**
+     * Applies all of the regularization that is owed and copies the coefficients and settings into
+     * an OnlineLogisticRegression of the same shape.  The step count and per-term annealing aren't
+     * copied, so training the exported model further starts again with the full learning rate.
+     */
+    void exportTo(OnlineLogisticRegression model) {
+        double rate = currentLearningRate();
+        for (int j = 0; j < numFeatures; j++) {
+            regularize(j, rate);
+        }
+
+        model.learningRate(learningRate).decayExponent(decayExponent).stepOffset(stepOffset).lambda(lambda);
+        Matrix m = model.getBeta();
+        for (int j = 0; j < numFeatures; j++) {
+            int base = j * rows;
+            for (int k = 0; k < rows; k++) {
+                m.setQuick(k, j, beta[base + k]);
+            }
+        }
+    }
+
+    /**
+     * Makes this a copy of another model of the same shape, including the learning rate schedule
+     * and the regularization that is owed.
+     */
+    void copyFrom(SparseLogisticRegression other) {
+        if (other.numCategories != numCategories || other.numFeatures != numFeatures) {
+            throw new IllegalArgumentException("Can't copy a model of a different shape");
+        }
+        learningRate = other.learningRate;
+        stepOffset = other.stepOffset;
+        decayExponent = other.decayExponent;
+        lambda = other.lambda;
+        System.arraycopy(other.beta, 0, beta, 0, beta.length);
+        System.arraycopy(other.lastUpdate, 0, lastUpdate, 0, lastUpdate.length);
+        System.arraycopy(other.updateCounts, 0, updateCounts, 0, updateCounts.length);
+        step = other.step;
+    }
+
+    double perTermLearningRate(int j) {
+        return Math.sqrt(PER_TERM_ANNEALING_OFFSET / (PER_TERM_ANNEALING_OFFSET + (double) updateCounts[j]));
+    }
+
+    /**
+     * Shrinks the coefficients of a feature toward zero for each step since it was last updated,
+     * without letting any of them change sign.
+     */
+    private void regularize(int j, double rate) {
+        int missing = step - lastUpdate[j];
+        if (missing > 0) {
+            double shrink = lambda * rate * perTermLearningRate(j) * missing;
+            int base = j * rows;
+            for (int k = 0; k < rows; k++) {
+                double b = beta[base + k];
+                if (b > shrink) {
+                    beta[base + k] = b - shrink;
+                } else if (b < -shrink) {
+                    beta[base + k] = b + shrink;
+                } else {
+                    beta[base + k] = 0;
+                }
+            }
+            lastUpdate[j] = step;
+        }
+    }
+
+    /**
+     * Sets scores to the probability of each category for the example last loaded.
+     */
+    private void probabilities(int n) {
+        for (int k = 0; k < numCategories; k++) {
+            scores[k] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            int base = indexes[i] * rows;
+            double x = values[i];
+            for (int k = 0; k < rows; k++) {
+                scores[k + 1] += beta[base + k] * x;
+            }
+        }
+
+        // soft-max, shifted by the largest score to avoid overflow
+        double max = 0;
+        for (int k = 1; k < numCategories; k++) {
+            max = Math.max(max, scores[k]);
+        }
+        double sum = 0;
+        for (int k = 0; k < numCategories; k++) {
+            scores[k] = Math.exp(scores[k] - max);
+            sum += scores[k];
+        }
+        for (int k = 0; k < numCategories; k++) {
+            scores[k] /= sum;
+        }
+    }
+
+    /**
+     * Copies the non-zero elements of an example into indexes and values.
+     *
+     * @return The number of non-zero elements.
+     */
+    private int load(Vector instance) {
+        int n = 0;
+        Iterator<Vector.Element> i = instance.iterateNonZero();
+        while (i.hasNext()) {
+            Vector.Element element = i.next();
+            if (n == indexes.length) {
+                int[] newIndexes = new int[2 * n];
+                System.arraycopy(indexes, 0, newIndexes, 0, n);
+                indexes = newIndexes;
+                double[] newValues = new double[2 * n];
+                System.arraycopy(values, 0, newValues, 0, n);
+                values = newValues;
+            }
+            indexes[n] = element.index();
+            values[n] = element.get();
+            n++;
+        }
+        return n;
+    }
+}
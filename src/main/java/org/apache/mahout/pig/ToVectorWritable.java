@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+
+import java.io.IOException;
+
+/**
+ * Converts an encoded vector into the bytes that VectorWritable would produce.  This is needed
+ * before storing vectors into files that Mahout programs will read using something like the
+ * GenericWritableConverter from elephant-bird.
+ */
+public class ToVectorWritable extends EvalFunc<DataByteArray> {
+    @Override
+    public DataByteArray exec(Tuple input) throws IOException {
+        if (input == null || input.size() != 1) {
+            throw new IllegalArgumentException("Input should be a single encoded vector");
+        }
+        DataByteArray v = (DataByteArray) input.get(0);
+        if (v == null) {
+            return null;
+        }
+        return PigVector.toWritableBytes(PigVector.fromBytes(v));
+    }
+}
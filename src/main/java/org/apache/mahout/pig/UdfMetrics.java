@@ -0,0 +1,234 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.collect.Maps;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.pig.impl.util.UDFContext;
+import org.apache.pig.tools.pigstats.PigStatusReporter;
+
+import java.util.Map;
+
+/**
+ * Collects per-row measurements for a UDF and publishes them as Hadoop counters so that they show
+ * up for each task in the job tracker.
+ * <p/>
+ * Metrics are off unless the job property mahout.pig.metrics is true.  When they are off, each
+ * call returns after checking a single flag.  When they are on, rows are counted along with the
+ * number of non-zero elements and bytes that each row produces.  Only one row in every
+ * mahout.pig.metrics.sample rows (64 by default) is timed to keep the cost of reading the clock
+ * down.  The counters for a UDF are in a group named "Mahout " followed by the name of the UDF:
+ * <ul>
+ * <li>rows - the number of rows handled.</li>
+ * <li>timed rows and timed row ns - the number of rows that were timed and the total nanoseconds
+ * they took.  The ratio is the average time per row.</li>
+ * <li>nonzeros and bytes - the totals over all rows.</li>
+ * <li>nonzeros &lt;= 10, &lt;= 100 and so on - a histogram of the number of non-zero elements per
+ * row by powers of ten.</li>
+ * </ul>
+ * UDFs can add counters of their own with {@link #count(String, long)} and time longer phases such
+ * as passes through training data with {@link #phase(String, long)}, which also sets the task
+ * status.
+ * <p/>
+ * Counts are kept locally and added to the counters every few thousand rows and when {@link
+ * #flush()} is called, which UDFs do when they finish.
+ * <p/>
+ * An instance must only be used by one thread.
+ */
+public class UdfMetrics {
+    public static final String ENABLED_PROPERTY = "mahout.pig.metrics";
+    public static final String SAMPLE_PROPERTY = "mahout.pig.metrics.sample";
+    static final int DEFAULT_SAMPLE = 64;
+
+    private static final int FLUSH_ROWS = 4096;
+    private static final String[] HISTOGRAM = {
+            "nonzeros <= 10", "nonzeros <= 100", "nonzeros <= 1000", "nonzeros <= 10000", "nonzeros <= 100000",
+            "nonzeros > 100000"
+    };
+
+    private static final UdfMetrics DISABLED = new UdfMetrics(null, 1, false);
+
+    private final String group;
+    private final int sampleEvery;
+    private final boolean enabled;
+
+    private final Map<String, Counter> counters = Maps.newHashMap();
+
+    private long rows;
+    private long timedRows;
+    private long timedNanos;
+    private long nonZeros;
+    private long bytes;
+    private final long[] histogram = new long[HISTOGRAM.length];
+    private int pending;
+
+    private boolean timing;
+    private long started;
+
+    UdfMetrics(String group, int sampleEvery, boolean enabled) {
+        this.group = group;
+        this.sampleEvery = sampleEvery;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the metrics for a UDF as configured by the current job.  Outside of a job, or if
+     * metrics are not enabled, all methods of the result do nothing.
+     * <p/>
+     * The job configuration is only available once the UDF runs, so this should be called from
+     * exec rather than from the constructor.
+     */
+    public static UdfMetrics forUdf(String udf) {
+        Configuration conf = UDFContext.getUDFContext().getJobConf();
+        if (conf == null || !conf.getBoolean(ENABLED_PROPERTY, false)) {
+            return DISABLED;
+        }
+        return new UdfMetrics("Mahout " + udf, Math.max(1, conf.getInt(SAMPLE_PROPERTY, DEFAULT_SAMPLE)), true);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Marks the start of a row.  The row is timed if it is one of the sampled rows.
+     */
+    public void startRow() {
+        if (enabled && rows % sampleEvery == 0) {
+            timing = true;
+            started = System.nanoTime();
+        }
+    }
+
+    /**
+     * Marks the end of a row.
+     *
+     * @param nonZeros The number of non-zero elements in the vector that the row produced or
+     *                 consumed.
+     * @param size     The number of bytes that the row produced or consumed.
+     */
+    public void endRow(int nonZeros, long size) {
+        if (!enabled) {
+            return;
+        }
+        if (timing) {
+            timedNanos += System.nanoTime() - started;
+            timedRows++;
+            timing = false;
+        }
+        rows++;
+        this.nonZeros += nonZeros;
+        bytes += size;
+        histogram[bucket(nonZeros)]++;
+
+        if (++pending >= FLUSH_ROWS) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds to a counter of the UDF's choosing.
+     */
+    public void count(String name, long n) {
+        if (enabled) {
+            increment(name, n);
+        }
+    }
+
+    /**
+     * Records that a long phase of work such as a pass through training data is done.  This adds
+     * to the phase's count and its total milliseconds and sets the task status so that progress
+     * of a slow task can be followed.
+     *
+     * @param name  The name of the phase.
+     * @param nanos How long the phase took.
+     */
+    public void phase(String name, long nanos) {
+        if (enabled) {
+            long ms = nanos / 1000000;
+            increment(name + " count", 1);
+            increment(name + " ms", ms);
+            PigStatusReporter reporter = PigStatusReporter.getInstance();
+            if (reporter != null) {
+                reporter.setStatus(String.format("%s: %s took %d ms", group, name, ms));
+                reporter.progress();
+            }
+        }
+    }
+
+    /**
+     * Sets the task status.
+     */
+    public void status(String message) {
+        if (enabled) {
+            PigStatusReporter reporter = PigStatusReporter.getInstance();
+            if (reporter != null) {
+                reporter.setStatus(group + ": " + message);
+                reporter.progress();
+            }
+        }
+    }
+
+    /**
+     * Adds the counts kept since the last flush to the counters.
+     */
+    public void flush() {
+        if (!enabled || pending == 0) {
+            return;
+        }
+        // rows is never reset so that sampling stays evenly spaced, pending is what is new
+        increment("rows", pending);
+        increment("timed rows", timedRows);
+        increment("timed row ns", timedNanos);
+        increment("nonzeros", nonZeros);
+        increment("bytes", bytes);
+        for (int i = 0; i < histogram.length; i++) {
+            if (histogram[i] > 0) {
+                increment(HISTOGRAM[i], histogram[i]);
+                histogram[i] = 0;
+            }
+        }
+        timedRows = 0;
+        timedNanos = 0;
+        nonZeros = 0;
+        bytes = 0;
+        pending = 0;
+    }
+
+    private void increment(String name, long n) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            PigStatusReporter reporter = PigStatusReporter.getInstance();
+            counter = reporter == null ? null : reporter.getCounter(group, name);
+            if (counter == null) {
+                // not running in a task, or the task isn't ready for counters yet
+                return;
+            }
+            counters.put(name, counter);
+        }
+        counter.increment(n);
+    }
+
+    static int bucket(int nonZeros) {
+        int r = 0;
+        for (long limit = 10; nonZeros > limit && r < HISTOGRAM.length - 1; limit *= 10) {
+            r++;
+        }
+        return r;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import org.apache.mahout.math.Vector;
+
+/**
+ * Accumulates measures of how well a model predicts a set of examples: the mean log-likelihood of
+ * the actual categories, the fraction of examples whose most likely category is the actual one and
+ * the area under the ROC curve.
+ * <p/>
+ * The AUC is computed from histograms of the log-odds of each category so that memory use doesn't
+ * depend on the number of examples.  Log-odds are binned in steps of 0.02 from -20 to 20 which
+ * makes the AUC accurate to about three decimal places.  With more than two categories, the AUC is
+ * the average over categories of the AUC for telling that category from all others.
+ */
+public class ValidationStats {
+    private static final int BINS = 2000;
+    private static final double MAX_LOG_ODDS = 20;
+
+    // probabilities are clipped to this to keep the log-likelihood finite
+    private static final double MIN_PROBABILITY = 1e-15;
+
+    private final int categories;
+    private long examples;
+    private double logLikelihood;
+    private long correct;
+
+    // histograms of log-odds for examples of and not of each category
+    private final long[][] positive;
+    private final long[][] negative;
+
+    public ValidationStats(int categories) {
+        this.categories = categories;
+        // for two categories, the AUC of one is the same as the AUC of the other
+        int curves = categories == 2 ? 1 : categories;
+        positive = new long[curves][BINS];
+        negative = new long[curves][BINS];
+    }
+
+    /**
+     * Adds the result of scoring one example.
+     *
+     * @param target        The actual category.
+     * @param probabilities The probability of each category according to the model.
+     */
+    public void add(int target, Vector probabilities) {
+        examples++;
+        logLikelihood += Math.log(Math.max(MIN_PROBABILITY, probabilities.get(target)));
+        if (probabilities.maxValueIndex() == target) {
+            correct++;
+        }
+
+        int offset = categories == 2 ? 1 : 0;
+        for (int c = 0; c < positive.length; c++) {
+            int bin = bin(probabilities.get(c + offset));
+            if (c + offset == target) {
+                positive[c][bin]++;
+            } else {
+                negative[c][bin]++;
+            }
+        }
+    }
+
+    /**
+     * Adds everything that another set of statistics has seen.
+     */
+    public void addAll(ValidationStats other) {
+        examples += other.examples;
+        logLikelihood += other.logLikelihood;
+        correct += other.correct;
+        for (int c = 0; c < positive.length; c++) {
+            for (int b = 0; b < BINS; b++) {
+                positive[c][b] += other.positive[c][b];
+                negative[c][b] += other.negative[c][b];
+            }
+        }
+    }
+
+    public long examples() {
+        return examples;
+    }
+
+    /**
+     * Returns the mean log-likelihood per example.  Closer to zero is better.
+     */
+    public double logLikelihood() {
+        return examples == 0 ? Double.NaN : logLikelihood / examples;
+    }
+
+    public double accuracy() {
+        return examples == 0 ? Double.NaN : (double) correct / examples;
+    }
+
+    /**
+     * Returns the area under the ROC curve or NaN if no category has both positive and negative
+     * examples.
+     */
+    public double auc() {
+        double sum = 0;
+        int curves = 0;
+        for (int c = 0; c < positive.length; c++) {
+            double area = 0;
+            long positives = 0;
+            long below = 0;
+            for (int b = 0; b < BINS; b++) {
+                // ties count half
+                area += positive[c][b] * (below + 0.5 * negative[c][b]);
+                positives += positive[c][b];
+                below += negative[c][b];
+            }
+            if (positives > 0 && below > 0) {
+                sum += area / positives / below;
+                curves++;
+            }
+        }
+        return curves == 0 ? Double.NaN : sum / curves;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d examples, log-likelihood %.5f, accuracy %.4f, AUC %.4f",
+                examples, logLikelihood(), accuracy(), auc());
+    }
+
+    private static int bin(double p) {
+        double logOdds = Math.log(p) - Math.log1p(-p);
+        if (Double.isNaN(logOdds)) {
+            logOdds = 0;
+        }
+        logOdds = Math.max(-MAX_LOG_ODDS, Math.min(MAX_LOG_ODDS, logOdds));
+        return Math.min(BINS - 1, (int) ((logOdds + MAX_LOG_ODDS) / (2 * MAX_LOG_ODDS) * BINS));
+    }
+}
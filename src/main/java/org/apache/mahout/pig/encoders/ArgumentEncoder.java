@@ -23,9 +23,18 @@ import org.apache.mahout.vectorizer.encoders.*;
 import java.lang.reflect.InvocationTargetException;
 
 public class ArgumentEncoder {
+    /**
+     * The kinds of variables that a schema can describe.
+     */
+    public enum Type {
+        NUMERIC, WORD, TEXT
+    }
+
     private int position;
     private String name;
+    private Type type;
     private FeatureVectorEncoder encoder;
+    private Analyzer analyzer;
 
     public ArgumentEncoder(int position, String name) {
         this.position = position;
@@ -34,18 +43,21 @@ public class ArgumentEncoder {
 
     public static ArgumentEncoder newNumericEncoder(int position, String name) {
         ArgumentEncoder r = new ArgumentEncoder(position, name);
+        r.type = Type.NUMERIC;
         r.encoder = new ContinuousValueEncoder(name);
         return r;
     }
 
     public static ArgumentEncoder newWordEncoder(int position, String name) {
         ArgumentEncoder r = new ArgumentEncoder(position, name);
+        r.type = Type.WORD;
         r.encoder = new StaticWordValueEncoder(name);
         return r;
     }
 
     public static ArgumentEncoder newTextEncoder(int position, String name) {
         ArgumentEncoder r = new ArgumentEncoder(position, name);
+        r.type = Type.TEXT;
         r.encoder = new TextValueEncoder(name);
         return r;
     }
@@ -68,7 +80,9 @@ public class ArgumentEncoder {
             throw new SchemaParseException("Can't construct analyzer object " + analyzerClass, e);
         }
         enc.setAnalyzer(analyzer);
+        r.type = Type.TEXT;
         r.encoder = enc;
+        r.analyzer = analyzer;
         return r;
     }
 
@@ -79,4 +93,20 @@ public class ArgumentEncoder {
     public int getPosition() {
         return position;
     }
+
+    public String getName() {
+        return name;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the Lucene analyzer used to tokenize a text variable or null if text is split on
+     * non-word characters.
+     */
+    public Analyzer getAnalyzer() {
+        return analyzer;
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.encoders;
+
+import com.google.common.base.Charsets;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A reader over a reusable buffer of characters.  This lets a Lucene analyzer read one field value
+ * after another without a new String and StringReader for each.
+ * <p/>
+ * Closing the reader does nothing so that it can be handed to an analyzer again after the analyzer
+ * is done with it.
+ */
+class CharsReader extends Reader {
+    private final CharsetDecoder utf8 = Charsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private char[] chars = new char[256];
+    private int length;
+    private int position;
+
+    /**
+     * Starts reading a copy of some characters.
+     */
+    void reset(CharSequence s) {
+        int n = s.length();
+        ensureCapacity(n);
+        if (s instanceof String) {
+            ((String) s).getChars(0, n, chars, 0);
+        } else {
+            for (int i = 0; i < n; i++) {
+                chars[i] = s.charAt(i);
+            }
+        }
+        length = n;
+        position = 0;
+    }
+
+    /**
+     * Starts reading the characters encoded by some UTF-8 bytes.  Bad bytes are replaced the same
+     * way that new String(bytes, "UTF-8") does.
+     */
+    void reset(byte[] bytes, int offset, int n) {
+        // UTF-8 never takes fewer bytes than UTF-16 takes chars
+        ensureCapacity(n);
+        CharBuffer out = CharBuffer.wrap(chars);
+        utf8.reset();
+        utf8.decode(ByteBuffer.wrap(bytes, offset, n), out, true);
+        utf8.flush(out);
+        length = out.position();
+        position = 0;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int n) {
+        if (position >= length) {
+            return -1;
+        }
+        int r = Math.min(n, length - position);
+        System.arraycopy(chars, position, buffer, offset, r);
+        position += r;
+        return r;
+    }
+
+    @Override
+    public int read() {
+        return position < length ? chars[position++] : -1;
+    }
+
+    @Override
+    public void close() {
+        // the buffer is reused
+    }
+
+    private void ensureCapacity(int n) {
+        if (chars.length < n) {
+            chars = new char[Math.max(2 * chars.length, n)];
+        }
+    }
+}
@@ -23,7 +23,6 @@ import org.apache.mahout.math.Vector;
 import org.apache.mahout.pig.PigVector;
 import org.apache.pig.EvalFunc;
 import org.apache.pig.data.DataByteArray;
-import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 
 import java.io.IOException;
@@ -60,7 +59,7 @@ public class DirectVector extends EvalFunc<DataByteArray> {
             for (int i = 0; i < dimension; i++) {
                 final Object v = input.get(i);
                 if (v != null) {
-                    r.set(i, DataType.toDouble(v));
+                    r.set(i, Numbers.toDouble(v));
                 } else {
                     r.set(i, Double.NaN);
                 }
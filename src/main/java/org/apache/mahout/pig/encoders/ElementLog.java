@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.encoders;
+
+import java.util.Arrays;
+
+/**
+ * Records elements in the order they are added so that they can be added to another sink later.
+ * Replaying logs in a fixed order gives exactly the same floating point sums as adding the elements
+ * directly in that order, no matter which thread filled each log.
+ */
+class ElementLog implements ElementSink {
+    private int[] indices = new int[64];
+    private double[] values = new double[64];
+    private int size;
+
+    public void add(int index, double value) {
+        if (size == indices.length) {
+            indices = Arrays.copyOf(indices, 2 * size);
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        indices[size] = index;
+        values[size] = value;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Adds all of the recorded elements to another sink in the order they were recorded.
+     */
+    void replayInto(ElementSink sink) {
+        for (int i = 0; i < size; i++) {
+            sink.add(indices[i], values[i]);
+        }
+    }
+}
@@ -16,10 +16,11 @@
 
 package org.apache.mahout.pig.encoders;
 
-import org.apache.mahout.math.RandomAccessSparseVector;
-import org.apache.mahout.math.Vector;
-import org.apache.mahout.pig.ImpossibleStateError;
-import org.apache.mahout.pig.PigVector;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.mahout.pig.UdfMetrics;
 import org.apache.mahout.vectorizer.encoders.ConstantValueEncoder;
 import org.apache.mahout.vectorizer.encoders.FeatureVectorEncoder;
 import org.apache.pig.EvalFunc;
@@ -27,18 +28,34 @@ import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.Tuple;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Encodes a tuple as a vector using the hashed vector representation.
+ * <p/>
+ * The formula and schema are compiled once into an {@link EncodingPlan} so that encoding a row
+ * allocates almost nothing other than the bytes of the result.  Rows with long text fields can
+ * optionally be encoded with several threads.
  */
 public class EncodeVector extends EvalFunc<DataByteArray> {
+    static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+
     private int dimension;
     private EncodingSpec spec;
     private Map<String, ArgumentEncoder> encoderMap;
     private final FeatureVectorEncoder constantEncoder = new ConstantValueEncoder("- bias -");
     private int minimumTupleSize;
+    private EncodingPlan plan;
+
+    private final int threads;
+    private final int parallelThreshold;
+    private ExecutorService pool;
+
+    private UdfMetrics metrics;
 
     /**
      * This class requires that a formula and a schema be provided in order to specify how
@@ -50,6 +67,10 @@ public class EncodeVector extends EvalFunc<DataByteArray> {
      * <p/>
      * This indicates that x, the interaction between x and y and a constant offset should be encoded.
      * <p/>
+     * Interactions can be between any kinds of variables.  The interaction of a numeric variable with
+     * a word or text variable is encoded as one feature per word weighted by the numeric value.  The
+     * interaction of two word or text variables has one feature for each pair of words.
+     * <p/>
      * The schema looks generally like a pig schema except that only the following primitive types are recognized:
      * <p/>
      * numeric
@@ -62,6 +83,43 @@ public class EncodeVector extends EvalFunc<DataByteArray> {
      * @param schema    A schema description for the arguments that will be given to the function later.
      */
     public EncodeVector(String dimension, String formula, String schema) {
+        this(dimension, formula, schema, "");
+    }
+
+    /**
+     * Like the three argument constructor, but allows options to be given as a list of name=value
+     * pairs separated by commas.  The following options are recognized:
+     * <ul>
+     * <li>maxInteractions - the maximum number of interaction features encoded for a single row.
+     * Interactions between text fields can produce a very large number of features so combinations
+     * beyond this limit are dropped.  The default is 10000.</li>
+     * <li>threads - the number of threads used to encode rows with long text fields.  The text
+     * fields of a row are tokenized at the same time and the terms of the formula are hashed at the
+     * same time.  The result is exactly the same as with one thread.  The default is 1.</li>
+     * <li>parallelThreshold - rows whose text and word fields have fewer characters than this in
+     * total are encoded with one thread since they are too small to gain from more.  The default
+     * is 10000.</li>
+     * </ul>
+     *
+     * @param dimension Number of elements in the resulting encoded vectors
+     * @param formula   The R-like formula that describes the data to encode
+     * @param schema    A schema description for the arguments that will be given to the function later.
+     * @param options   Comma separated name=value options.
+     */
+    public EncodeVector(String dimension, String formula, String schema, String options) {
+        Map<String, String> optionMap = parseOptions(options);
+        int maxInteractions = optionMap.containsKey("maxInteractions") ?
+                Integer.parseInt(optionMap.remove("maxInteractions")) : EncodingPlan.DEFAULT_MAX_INTERACTIONS;
+        threads = optionMap.containsKey("threads") ? Integer.parseInt(optionMap.remove("threads")) : 1;
+        if (threads < 1) {
+            throw new IllegalArgumentException("Must have at least one thread");
+        }
+        parallelThreshold = optionMap.containsKey("parallelThreshold") ?
+                Integer.parseInt(optionMap.remove("parallelThreshold")) : DEFAULT_PARALLEL_THRESHOLD;
+        if (optionMap.size() > 0) {
+            throw new IllegalArgumentException("Extra options supplied: " + Joiner.on(" ").join(optionMap.keySet()));
+        }
+
         this.dimension = Integer.parseInt(dimension);
         encoderMap = Schema.parse(schema);
         minimumTupleSize = 0;
@@ -69,29 +127,64 @@ public class EncodeVector extends EvalFunc<DataByteArray> {
             minimumTupleSize = Math.max(minimumTupleSize, encoder.getPosition() + 1);
         }
         spec = Formula.parse(formula);
+        plan = new EncodingPlan(this.dimension, spec, encoderMap, constantEncoder, maxInteractions);
+    }
+
+    /**
+     * Splits comma separated name=value options into a map.
+     */
+    static Map<String, String> parseOptions(String options) {
+        Splitter onComma = Splitter.on(",").trimResults().omitEmptyStrings();
+        Splitter onEquals = Splitter.on("=").trimResults();
+
+        Map<String, String> r = Maps.newHashMap();
+        for (String option : onComma.split(options)) {
+            List<String> values = Lists.newArrayList(onEquals.split(option));
+            if (values.size() != 2) {
+                throw new IllegalArgumentException("Options should have the form name=value but got " + option);
+            }
+            r.put(values.get(0), values.get(1));
+        }
+        return r;
     }
 
     public DataByteArray exec(Tuple input) throws IOException {
+        if (metrics == null) {
+            metrics = UdfMetrics.forUdf("EncodeVector");
+        }
+        metrics.startRow();
+        DataByteArray r = encode(input);
+        metrics.endRow(plan.lastSize(), r.size());
+        return r;
+    }
+
+    private DataByteArray encode(Tuple input) throws IOException {
         if (input == null || input.size() == 0 || input.size() < minimumTupleSize) {
             throw new IllegalArgumentException("Tuple doesn't have at least " + minimumTupleSize + " elements");
-        } else {
-            Vector r = new RandomAccessSparseVector(dimension);
-            for (Set<String> variables : spec.getVariables()) {
-                if (variables.size() > 1) {
-                    throw new UnsupportedOperationException("Can't encode interactions yet");
-                }
-                if (variables.size() == 0) {
-                    throw new ImpossibleStateError("No variables!");
-                }
-                final String var = variables.iterator().next();
-                if ("1".equals(var)) {
-                    constantEncoder.addToVector((byte[]) null, r);
-                } else {
-                    ArgumentEncoder encoder = encoderMap.get(var);
-                    encoder.getEncoder().addToVector(input.get(encoder.getPosition()).toString(), r);
-                }
+        } else if (threads > 1 && plan.textLength(input) >= parallelThreshold) {
+            if (pool == null) {
+                pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "encode-vector");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
             }
-            return PigVector.toBytes(r);
+            return plan.encode(input, pool);
+        } else {
+            return plan.encode(input);
+        }
+    }
+
+    @Override
+    public void finish() {
+        if (metrics != null) {
+            metrics.flush();
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
         }
     }
 }
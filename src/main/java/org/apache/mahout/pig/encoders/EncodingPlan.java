@@ -0,0 +1,842 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.encoders;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.pig.ImpossibleStateError;
+import org.apache.mahout.vectorizer.encoders.FeatureVectorEncoder;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * An encoding specification compiled against a schema into a flat array of terms.
+ * <p/>
+ * Each row is encoded by first extracting the value of every variable that the formula mentions
+ * into reusable buffers and then letting each term add its elements to a reusable accumulator.
+ * The hashed locations are the same as those produced by Mahout's ConstantValueEncoder,
+ * ContinuousValueEncoder, StaticWordValueEncoder and TextValueEncoder, but the hashing is done
+ * directly on UTF-8 bytes without building strings, byte arrays or vectors.
+ * <p/>
+ * Interactions are encoded by combining the hashes of one feature from each of the interacting
+ * variables so that every combination lands in its own hashed location with a weight that is the
+ * product of the weights of the features.  A numeric variable contributes a single feature
+ * weighted by its value and a word or text variable contributes one feature per distinct term.
+ * Since interactions between text fields can produce a very large number of features, the total
+ * number of interaction features per row is limited.  Once the limit is reached, the remaining
+ * combinations are dropped.
+ * <p/>
+ * Wide rows can be encoded using a pool of threads.  The variables are extracted in parallel and
+ * then the terms are encoded in parallel, each into its own log of elements.  The logs are then
+ * added up in the same order as serial encoding would add the elements so the result is
+ * identical.  Interaction terms share the per-row limit and so are encoded one after another in a
+ * single task.
+ * <p/>
+ * A plan keeps per-row state and so must not be used for more than one row at a time.
+ */
+class EncodingPlan {
+    private static final double LOG_2 = Math.log(2.0);
+
+    // the seed that Mahout's word-like encoders add to the probe number
+    private static final int WORD_LIKE_VALUE_HASH_SEED = 100;
+
+    // seeds the hashes of the features that make up interactions
+    private static final int INTERACTION_SEED = 0x5EED;
+
+    /**
+     * The default limit on the number of interaction features in a single row.
+     */
+    static final int DEFAULT_MAX_INTERACTIONS = 10000;
+
+    private final int dimension;
+    private final Variable[] variables;
+    private final Term[] terms;
+
+    private final int maxInteractions;
+    private int remainingInteractions;
+
+    private final SparseAccumulator accumulator = new SparseAccumulator();
+
+    // for parallel encoding, a log for each term and the tasks that fill them
+    private ElementLog[] logs;
+    private List<Callable<Object>> extractTasks;
+    private List<Callable<Object>> termTasks;
+    private Tuple row;
+
+    EncodingPlan(int dimension, EncodingSpec spec, Map<String, ArgumentEncoder> encoders, FeatureVectorEncoder constantEncoder) {
+        this(dimension, spec, encoders, constantEncoder, DEFAULT_MAX_INTERACTIONS);
+    }
+
+    EncodingPlan(int dimension, EncodingSpec spec, Map<String, ArgumentEncoder> encoders, FeatureVectorEncoder constantEncoder, int maxInteractions) {
+        this.dimension = dimension;
+        this.maxInteractions = maxInteractions;
+
+        Map<String, Variable> variableMap = Maps.newLinkedHashMap();
+        List<Term> termList = Lists.newArrayList();
+        for (Set<String> names : spec.getVariables()) {
+            if (names.size() == 0) {
+                throw new ImpossibleStateError("No variables!");
+            }
+            if (names.size() > 1) {
+                Variable[] parts = new Variable[names.size()];
+                int probes = 1;
+                int i = 0;
+                for (String name : names) {
+                    parts[i++] = variable(name, encoders, variableMap);
+                    if (!"1".equals(name)) {
+                        probes = Math.max(probes, encoders.get(name).getEncoder().getProbes());
+                    }
+                }
+                termList.add(new InteractionTerm(Joiner.on(":").join(names), parts, probes));
+                continue;
+            }
+
+            final String name = names.iterator().next();
+            if ("1".equals(name)) {
+                termList.add(new FixedTerm(name, null, constantEncoder, null, dimension));
+            } else {
+                Variable v = variable(name, encoders, variableMap);
+                if (v instanceof NumericVariable) {
+                    termList.add(new FixedTerm(name, (NumericVariable) v, encoders.get(name).getEncoder(), "1".getBytes(Charsets.UTF_8), dimension));
+                } else {
+                    termList.add(new WordTerm((TermVariable) v, encoders.get(name).getEncoder().getProbes(), dimension));
+                }
+            }
+        }
+        variables = variableMap.values().toArray(new Variable[variableMap.size()]);
+        terms = termList.toArray(new Term[termList.size()]);
+    }
+
+    /**
+     * Encodes one row.
+     *
+     * @param input The row to encode.
+     * @return The vector in the format used by {@link org.apache.mahout.pig.PigVector}.
+     */
+    DataByteArray encode(Tuple input) throws IOException {
+        accumulator.clear();
+        remainingInteractions = maxInteractions;
+        for (Variable v : variables) {
+            v.extract(input.get(v.position));
+        }
+        for (Term term : terms) {
+            term.addTo(accumulator, null);
+        }
+        return accumulator.toBytes(dimension, false);
+    }
+
+    /**
+     * Encodes one row using a pool of threads.  The result is the same as from {@link
+     * #encode(Tuple)}.
+     */
+    DataByteArray encode(Tuple input, ExecutorService pool) throws IOException {
+        if (logs == null) {
+            createTasks();
+        }
+
+        row = input;
+        remainingInteractions = maxInteractions;
+        try {
+            run(pool, extractTasks);
+            run(pool, termTasks);
+        } finally {
+            row = null;
+        }
+
+        accumulator.clear();
+        for (ElementLog log : logs) {
+            log.replayInto(accumulator);
+        }
+        return accumulator.toBytes(dimension, false);
+    }
+
+    /**
+     * Returns the number of non-zero elements in the last row encoded.
+     */
+    int lastSize() {
+        return accumulator.size();
+    }
+
+    /**
+     * Returns the total length of the text and word fields of a row.  This is a rough measure of
+     * how much work encoding the row will be.
+     */
+    int textLength(Tuple input) throws IOException {
+        int r = 0;
+        for (Variable v : variables) {
+            if (v instanceof TermVariable) {
+                Object value = input.get(v.position);
+                if (value instanceof DataByteArray) {
+                    r += ((DataByteArray) value).size();
+                } else if (value instanceof CharSequence) {
+                    r += ((CharSequence) value).length();
+                }
+            }
+        }
+        return r;
+    }
+
+    private void createTasks() {
+        logs = new ElementLog[terms.length];
+        extractTasks = Lists.newArrayList();
+        for (final Variable v : variables) {
+            extractTasks.add(new Callable<Object>() {
+                public Object call() throws IOException {
+                    v.extract(row.get(v.position));
+                    return null;
+                }
+            });
+        }
+
+        termTasks = Lists.newArrayList();
+        final List<Integer> interactions = Lists.newArrayList();
+        for (int t = 0; t < terms.length; t++) {
+            logs[t] = new ElementLog();
+            if (terms[t] instanceof InteractionTerm) {
+                interactions.add(t);
+            } else {
+                final int term = t;
+                termTasks.add(new Callable<Object>() {
+                    public Object call() {
+                        logs[term].clear();
+                        terms[term].addTo(logs[term], null);
+                        return null;
+                    }
+                });
+            }
+        }
+        if (interactions.size() > 0) {
+            // these share the limit on interactions so they must run in order
+            termTasks.add(new Callable<Object>() {
+                public Object call() {
+                    for (int term : interactions) {
+                        logs[term].clear();
+                        terms[term].addTo(logs[term], null);
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    private static void run(ExecutorService pool, List<Callable<Object>> tasks) throws IOException {
+        try {
+            for (Future<Object> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while encoding", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IOException("Error while encoding", cause);
+            }
+        }
+    }
+
+    /**
+     * Encodes one row, telling a listener about every feature and where it is hashed to.
+     *
+     * @param input    The row to encode.
+     * @param listener Is told about the features of each term in turn.
+     * @return The number of non-zero elements in the encoded vector.
+     */
+    int inspect(Tuple input, FeatureListener listener) throws IOException {
+        accumulator.clear();
+        remainingInteractions = maxInteractions;
+        for (Variable v : variables) {
+            v.extract(input.get(v.position));
+        }
+        for (int t = 0; t < terms.length; t++) {
+            listener.startTerm(t);
+            terms[t].addTo(accumulator, listener);
+        }
+        return accumulator.size();
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Returns the number of terms in the formula.  Each interaction is one term.
+     */
+    int termCount() {
+        return terms.length;
+    }
+
+    /**
+     * Returns the name of a term.  Interactions are named by joining the names of the variables
+     * with colons.
+     */
+    String termName(int term) {
+        return terms[term].name;
+    }
+
+    /**
+     * Returns the number of locations that each feature of a term is hashed to.
+     */
+    int termProbes(int term) {
+        return terms[term].probes();
+    }
+
+    /**
+     * Is told about the features of a row as it is encoded.
+     */
+    interface FeatureListener {
+        void startTerm(int term);
+
+        /**
+         * Called for each location a feature is hashed to.
+         *
+         * @param identity A 64 bit hash that identifies the feature.
+         * @param index    Where in the vector the feature goes.
+         */
+        void feature(long identity, int index);
+    }
+
+    /**
+     * Finds the variable with a particular name, creating it if this is the first time it is
+     * mentioned.  The bias is a constant pseudo-variable that is never extracted from the row.
+     */
+    private static Variable variable(String name, Map<String, ArgumentEncoder> encoders, Map<String, Variable> variableMap) {
+        if ("1".equals(name)) {
+            return new ConstantVariable();
+        }
+        Variable v = variableMap.get(name);
+        if (v == null) {
+            ArgumentEncoder encoder = encoders.get(name);
+            if (encoder == null) {
+                throw new IllegalArgumentException("Variable " + name + " is not in the schema");
+            }
+            v = newVariable(encoder);
+            variableMap.put(name, v);
+        }
+        return v;
+    }
+
+    private static Variable newVariable(ArgumentEncoder encoder) {
+        switch (encoder.getType()) {
+            case NUMERIC:
+                return new NumericVariable(encoder.getName(), encoder.getPosition());
+            case WORD:
+                return new WordVariable(encoder.getName(), encoder.getPosition());
+            case TEXT:
+                if (encoder.getAnalyzer() == null) {
+                    return new TextVariable(encoder.getName(), encoder.getPosition());
+                } else {
+                    return new AnalyzedTextVariable(encoder.getName(), encoder.getPosition(), encoder.getAnalyzer());
+                }
+            default:
+                throw new ImpossibleStateError("Unknown variable type " + encoder.getType());
+        }
+    }
+
+    /**
+     * Holds the value of one field of the current row.  For use in interactions, the value is
+     * also viewed as a list of features, each with a 64 bit hash and a weight.
+     */
+    private abstract static class Variable {
+        final String name;
+        final int position;
+
+        Variable(String name, int position) {
+            this.name = name;
+            this.position = position;
+        }
+
+        abstract void extract(Object value);
+
+        abstract int featureCount();
+
+        abstract long featureHash(int feature);
+
+        abstract double featureWeight(int feature);
+    }
+
+    /**
+     * The bias as it appears in an interaction.
+     */
+    private static class ConstantVariable extends Variable {
+        private static final long HASH = MurmurHash64.hash64A(new byte[]{'1'}, 0, 1, INTERACTION_SEED);
+
+        ConstantVariable() {
+            super("1", -1);
+        }
+
+        @Override
+        void extract(Object value) {
+            // nothing to extract
+        }
+
+        @Override
+        int featureCount() {
+            return 1;
+        }
+
+        @Override
+        long featureHash(int feature) {
+            return HASH;
+        }
+
+        @Override
+        double featureWeight(int feature) {
+            return 1;
+        }
+    }
+
+    /**
+     * A numeric value taken as is from the row.  Mahout's encoder parses the string form of the
+     * value, which is the same for everything but floats.  A float is widened exactly rather than
+     * going through its shortest decimal form, which differs by less than the float's precision.
+     */
+    private static class NumericVariable extends Variable {
+        private final long hash;
+
+        boolean present;
+        double value;
+
+        NumericVariable(String name, int position) {
+            super(name, position);
+            byte[] bytes = name.getBytes(Charsets.UTF_8);
+            hash = MurmurHash64.hash64A(bytes, 0, bytes.length, INTERACTION_SEED);
+        }
+
+        @Override
+        void extract(Object v) {
+            present = v != null;
+            if (present) {
+                value = Numbers.toDouble(v);
+            }
+        }
+
+        @Override
+        int featureCount() {
+            return present ? 1 : 0;
+        }
+
+        @Override
+        long featureHash(int feature) {
+            return hash;
+        }
+
+        @Override
+        double featureWeight(int feature) {
+            return value;
+        }
+    }
+
+    /**
+     * A variable whose value is a bag of terms.
+     */
+    private abstract static class TermVariable extends Variable {
+        final FeatureBuffer terms = new FeatureBuffer();
+
+        private final int seed;
+        // hashes of the terms for interactions, computed at most once per row
+        private long[] hashes = new long[16];
+        private boolean hashed;
+
+        TermVariable(String name, int position) {
+            super(name, position);
+            byte[] bytes = name.getBytes(Charsets.UTF_8);
+            seed = (int) MurmurHash64.hash64A(bytes, 0, bytes.length, INTERACTION_SEED);
+        }
+
+        @Override
+        void extract(Object value) {
+            terms.clear();
+            hashed = false;
+            if (value != null) {
+                extractTerms(value);
+            }
+        }
+
+        abstract void extractTerms(Object value);
+
+        double weight(int term) {
+            return 1;
+        }
+
+        @Override
+        int featureCount() {
+            return terms.size();
+        }
+
+        @Override
+        long featureHash(int feature) {
+            if (!hashed) {
+                int n = terms.size();
+                if (hashes.length < n) {
+                    hashes = new long[Math.max(n, 2 * hashes.length)];
+                }
+                for (int t = 0; t < n; t++) {
+                    hashes[t] = MurmurHash64.hash64A(terms.bytes(), terms.start(t), terms.length(t), seed);
+                }
+                hashed = true;
+            }
+            return hashes[feature];
+        }
+
+        @Override
+        double featureWeight(int feature) {
+            return weight(feature);
+        }
+    }
+
+    private static class WordVariable extends TermVariable {
+        WordVariable(String name, int position) {
+            super(name, position);
+        }
+
+        @Override
+        void extractTerms(Object value) {
+            if (value instanceof DataByteArray) {
+                byte[] bytes = ((DataByteArray) value).get();
+                terms.add(bytes, 0, bytes.length);
+            } else if (value instanceof CharSequence) {
+                terms.add((CharSequence) value);
+            } else {
+                terms.add(value.toString());
+            }
+        }
+    }
+
+    /**
+     * Text that is split on non-word characters.  Since the word characters are all ASCII, this
+     * can be done directly on the UTF-8 bytes.
+     */
+    private static class TextVariable extends TermVariable {
+        private byte[] utf8 = new byte[256];
+
+        TextVariable(String name, int position) {
+            super(name, position);
+        }
+
+        @Override
+        void extractTerms(Object value) {
+            if (value instanceof DataByteArray) {
+                byte[] bytes = ((DataByteArray) value).get();
+                tokenize(bytes, bytes.length);
+            } else {
+                CharSequence s = value instanceof CharSequence ? (CharSequence) value : value.toString();
+                if (utf8.length < 3 * s.length()) {
+                    utf8 = new byte[Math.max(2 * utf8.length, 3 * s.length())];
+                }
+                tokenize(utf8, FeatureBuffer.encodeUtf8(s, utf8, 0));
+            }
+        }
+
+        private void tokenize(byte[] data, int length) {
+            int i = 0;
+            while (i < length) {
+                while (i < length && !isWordByte(data[i])) {
+                    i++;
+                }
+                int start = i;
+                while (i < length && isWordByte(data[i])) {
+                    i++;
+                }
+                if (i > start) {
+                    terms.add(data, start, i - start);
+                }
+            }
+        }
+
+        /**
+         * Word characters are the same as \w in a Java regex.  Bytes of multi-byte characters are
+         * negative and thus never word characters.
+         */
+        private static boolean isWordByte(byte b) {
+            return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_';
+        }
+
+        @Override
+        double weight(int term) {
+            // weight words by log_2(1 + tf) as Mahout's TextValueEncoder does
+            return Math.log1p(terms.count(term)) / LOG_2;
+        }
+    }
+
+    /**
+     * Text that is tokenized by a Lucene analyzer.
+     * <p/>
+     * The analyzer already reuses one token stream per thread and field, so the values are fed to
+     * it through a reusable reader and the terms are hashed straight from the term attribute's
+     * buffer.  The attribute is looked up again only when the analyzer hands back a different
+     * stream, as it does when rows are extracted by different threads of a pool.
+     */
+    private static class AnalyzedTextVariable extends TermVariable {
+        private final Analyzer analyzer;
+        private final CharsReader reader = new CharsReader();
+
+        private TokenStream stream;
+        private CharTermAttribute term;
+
+        AnalyzedTextVariable(String name, int position, Analyzer analyzer) {
+            super(name, position);
+            this.analyzer = analyzer;
+        }
+
+        @Override
+        void extractTerms(Object value) {
+            if (value instanceof DataByteArray) {
+                DataByteArray bytes = (DataByteArray) value;
+                reader.reset(bytes.get(), 0, bytes.size());
+            } else {
+                reader.reset(value instanceof CharSequence ? (CharSequence) value : value.toString());
+            }
+
+            try {
+                TokenStream ts = analyzer.tokenStream(name, reader);
+                if (ts != stream) {
+                    stream = ts;
+                    term = ts.addAttribute(CharTermAttribute.class);
+                }
+                ts.reset();
+                while (ts.incrementToken()) {
+                    terms.add(term.buffer(), 0, term.length());
+                }
+                ts.end();
+                ts.close();
+            } catch (IOException e) {
+                throw new ImpossibleStateError("Can't have IO error on in-memory reader", e);
+            }
+        }
+
+        @Override
+        double weight(int term) {
+            return Math.log1p(terms.count(term)) / LOG_2;
+        }
+    }
+
+    /**
+     * Adds elements to a vector.
+     */
+    private abstract static class Term {
+        final String name;
+
+        Term(String name) {
+            this.name = name;
+        }
+
+        abstract int probes();
+
+        /**
+         * Adds the elements for the current row.  The listener is told about each feature if it
+         * isn't null.
+         */
+        abstract void addTo(ElementSink r, FeatureListener listener);
+    }
+
+    /**
+     * A term whose locations don't depend on the data.  These are the bias and numeric terms.  The
+     * locations are found once by letting the corresponding Mahout encoder encode a unit value.
+     */
+    private static class FixedTerm extends Term {
+        private final NumericVariable variable;
+        private final int[] indices;
+        private final double[] weights;
+
+        FixedTerm(String name, NumericVariable variable, FeatureVectorEncoder encoder, byte[] unit, int dimension) {
+            super(name);
+            this.variable = variable;
+
+            Vector probe = new RandomAccessSparseVector(dimension);
+            encoder.addToVector(unit, 1.0, probe);
+            int[] tmp = new int[probe.getNumNondefaultElements()];
+            int n = 0;
+            Iterator<Vector.Element> i = probe.iterateNonZero();
+            while (i.hasNext()) {
+                tmp[n++] = i.next().index();
+            }
+            indices = Arrays.copyOf(tmp, n);
+            Arrays.sort(indices);
+            weights = new double[n];
+            for (int k = 0; k < n; k++) {
+                weights[k] = probe.getQuick(indices[k]);
+            }
+        }
+
+        @Override
+        int probes() {
+            return indices.length;
+        }
+
+        @Override
+        void addTo(ElementSink r, FeatureListener listener) {
+            double x = 1;
+            if (variable != null) {
+                if (!variable.present) {
+                    return;
+                }
+                x = variable.value;
+            }
+            for (int k = 0; k < indices.length; k++) {
+                r.add(indices[k], x * weights[k]);
+                if (listener != null) {
+                    listener.feature(variable == null ? ConstantVariable.HASH : variable.hash, indices[k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * A term made of words.  Each word is hashed once per probe, seeded by a hash of the
+     * variable name.
+     */
+    private static class WordTerm extends Term {
+        private final TermVariable variable;
+        private final int[] seeds;
+        private final int dimension;
+
+        WordTerm(TermVariable variable, int probes, int dimension) {
+            super(variable.name);
+            this.variable = variable;
+            this.dimension = dimension;
+            this.seeds = new int[probes];
+            byte[] name = variable.name.getBytes(Charsets.UTF_8);
+            for (int probe = 0; probe < probes; probe++) {
+                seeds[probe] = (int) MurmurHash64.hash64A(name, 0, name.length, WORD_LIKE_VALUE_HASH_SEED + probe);
+            }
+        }
+
+        @Override
+        int probes() {
+            return seeds.length;
+        }
+
+        @Override
+        void addTo(ElementSink r, FeatureListener listener) {
+            FeatureBuffer terms = variable.terms;
+            byte[] bytes = terms.bytes();
+            for (int t = 0; t < terms.size(); t++) {
+                double w = variable.weight(t);
+                for (int seed : seeds) {
+                    long h = MurmurHash64.hash64A(bytes, terms.start(t), terms.length(t), seed) % dimension;
+                    if (h < 0) {
+                        h += dimension;
+                    }
+                    r.add((int) h, w);
+                    if (listener != null) {
+                        listener.feature(variable.featureHash(t), (int) h);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * An interaction between two or more variables.  Every combination of one feature from each
+     * variable is hashed by mixing the hashes of the features.  Combinations are only generated
+     * while the per-row limit on interaction features has not been reached.
+     */
+    private class InteractionTerm extends Term {
+        private static final long M = 0xc6a4a7935bd1e995L;
+
+        private final Variable[] parts;
+        private final int probes;
+        private final int[] current;
+
+        InteractionTerm(String name, Variable[] parts, int probes) {
+            super(name);
+            this.parts = parts;
+            this.probes = probes;
+            this.current = new int[parts.length];
+        }
+
+        @Override
+        int probes() {
+            return probes;
+        }
+
+        @Override
+        void addTo(ElementSink r, FeatureListener listener) {
+            for (Variable part : parts) {
+                if (part.featureCount() == 0) {
+                    return;
+                }
+            }
+            Arrays.fill(current, 0);
+
+            while (remainingInteractions > 0) {
+                long h = INTERACTION_SEED;
+                double w = 1;
+                for (int k = 0; k < parts.length; k++) {
+                    h = (h ^ parts[k].featureHash(current[k])) * M;
+                    h ^= h >>> 47;
+                    w *= parts[k].featureWeight(current[k]);
+                }
+                for (int probe = 0; probe < probes; probe++) {
+                    long index = mix(h + probe) % dimension;
+                    if (index < 0) {
+                        index += dimension;
+                    }
+                    r.add((int) index, w);
+                    if (listener != null) {
+                        listener.feature(h, (int) index);
+                    }
+                }
+                remainingInteractions--;
+
+                // step to the next combination, last variable varying fastest
+                int k = parts.length - 1;
+                while (k >= 0 && ++current[k] == parts[k].featureCount()) {
+                    current[k] = 0;
+                    k--;
+                }
+                if (k < 0) {
+                    return;
+                }
+            }
+        }
+
+        private long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
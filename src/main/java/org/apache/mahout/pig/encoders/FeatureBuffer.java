@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.encoders;
+
+import java.util.Arrays;
+
+/**
+ * Holds the distinct terms found in one field of one row as UTF-8 byte slices together with the
+ * number of times each term was seen.  All storage is reused from row to row.
+ */
+class FeatureBuffer {
+    private byte[] bytes = new byte[256];
+    private int used;
+
+    private int[] start = new int[16];
+    private int[] length = new int[16];
+    private int[] count = new int[16];
+    private int size;
+
+    // open addressing table of term number + 1 used to find duplicates
+    private int[] table = new int[64];
+
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(table, 0);
+        }
+        used = 0;
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    int start(int term) {
+        return start[term];
+    }
+
+    int length(int term) {
+        return length[term];
+    }
+
+    int count(int term) {
+        return count[term];
+    }
+
+    /**
+     * Adds a term given as a slice of UTF-8 bytes.
+     */
+    void add(byte[] data, int offset, int n) {
+        ensureBytes(n);
+        System.arraycopy(data, offset, bytes, used, n);
+        commit(used, n);
+    }
+
+    /**
+     * Adds a term given as characters.
+     */
+    void add(CharSequence s) {
+        ensureBytes(3 * s.length());
+        commit(used, encodeUtf8(s, bytes, used) - used);
+    }
+
+    /**
+     * Adds a term given as a slice of characters such as the buffer of a Lucene term attribute.
+     */
+    void add(char[] chars, int offset, int n) {
+        ensureBytes(3 * n);
+        commit(used, encodeUtf8(chars, offset, n, bytes, used) - used);
+    }
+
+    /**
+     * Writes the UTF-8 encoding of some characters the same way that String.getBytes does,
+     * including the substitution of '?' for unpaired surrogates.
+     *
+     * @param s   The characters to encode.
+     * @param out Where to put the bytes.  There must be room for three bytes per character.
+     * @param p   Where to start writing.
+     * @return The offset just past the last byte written.
+     */
+    static int encodeUtf8(CharSequence s, byte[] out, int p) {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out[p++] = (byte) c;
+            } else if (c < 0x800) {
+                out[p++] = (byte) (0xC0 | (c >> 6));
+                out[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    out[p++] = (byte) (0xF0 | (cp >> 18));
+                    out[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    out[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    out[p++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    out[p++] = '?';
+                }
+            } else {
+                out[p++] = (byte) (0xE0 | (c >> 12));
+                out[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Writes the UTF-8 encoding of a slice of characters exactly as {@link #encodeUtf8(CharSequence,
+     * byte[], int)} does, but without going through the CharSequence interface for each character.
+     */
+    static int encodeUtf8(char[] s, int offset, int n, byte[] out, int p) {
+        int end = offset + n;
+        for (int i = offset; i < end; i++) {
+            char c = s[i];
+            if (c < 0x80) {
+                out[p++] = (byte) c;
+            } else if (c < 0x800) {
+                out[p++] = (byte) (0xC0 | (c >> 6));
+                out[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s[i + 1])) {
+                    int cp = Character.toCodePoint(c, s[++i]);
+                    out[p++] = (byte) (0xF0 | (cp >> 18));
+                    out[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    out[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    out[p++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    out[p++] = '?';
+                }
+            } else {
+                out[p++] = (byte) (0xE0 | (c >> 12));
+                out[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return p;
+    }
+
+    private void commit(int offset, int n) {
+        int h = 0;
+        for (int i = offset; i < offset + n; i++) {
+            h = 31 * h + bytes[i];
+        }
+        h *= 0x9E3779B9;
+        int mask = table.length - 1;
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (table[slot] != 0) {
+            int term = table[slot] - 1;
+            if (length[term] == n && same(start[term], offset, n)) {
+                count[term]++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == start.length) {
+            start = Arrays.copyOf(start, 2 * size);
+            length = Arrays.copyOf(length, 2 * size);
+            count = Arrays.copyOf(count, 2 * size);
+        }
+        start[size] = offset;
+        length[size] = n;
+        count[size] = 1;
+        table[slot] = ++size;
+        used = offset + n;
+
+        if (2 * size > table.length) {
+            rehash();
+        }
+    }
+
+    private boolean same(int a, int b, int n) {
+        for (int i = 0; i < n; i++) {
+            if (bytes[a + i] != bytes[b + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        table = new int[2 * table.length];
+        int mask = table.length - 1;
+        for (int term = 0; term < size; term++) {
+            int h = 0;
+            for (int i = start[term]; i < start[term] + length[term]; i++) {
+                h = 31 * h + bytes[i];
+            }
+            h *= 0x9E3779B9;
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = term + 1;
+        }
+    }
+
+    private void ensureBytes(int n) {
+        if (used + n > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, used + n));
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.encoders;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.mahout.vectorizer.encoders.ConstantValueEncoder;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reports how well the features of a sample of data fit into hashed vectors of a given dimension.
+ * <p/>
+ * This takes the same dimension, formula, schema and options as {@link EncodeVector} and is applied
+ * to a bag of rows such as a sample of the data that will be encoded.  The result is a bag with one tuple for each term of the
+ * formula and a final tuple named "*" for the vector as a whole.  Each tuple contains:
+ * <ul>
+ * <li>name - the name of the term.  Interactions are named like a:b.</li>
+ * <li>rows - the number of rows in the sample.</li>
+ * <li>features - the number of distinct features, that is distinct words, numeric variables or
+ * combinations of features for interactions.</li>
+ * <li>occupied - the number of locations in the vector that are used.</li>
+ * <li>expected - the number of features expected to share a location with some other feature if
+ * the hashing were perfectly random.</li>
+ * <li>observed - the number of features that actually share a location with some other
+ * feature.</li>
+ * <li>nonZeros - the average number of locations used per row.</li>
+ * <li>recommended - the smallest dimension that would keep the expected fraction of colliding
+ * features at or below the target rate.  For a term, this assumes the term is alone in the
+ * vector.</li>
+ * </ul>
+ * The number of distinct features usually keeps growing with more data, so the sample should be
+ * as large as practical.  For example:
+ * <pre>
+ *     define diagnose org.apache.mahout.pig.encoders.HashDiagnostics('100000', 'x + words + x*words',
+ *               'x:numeric, words:text', 'collisionRate=0.05');
+ *     report = foreach (group (sample data 0.01) all) generate flatten(diagnose($1));
+ * </pre>
+ * Options are those of EncodeVector plus collisionRate, the target fraction of features that
+ * collide.  The default is 0.01.  The threads and parallelThreshold options are accepted so that the
+ * same options can be given to both, but the sample is always inspected with one thread.
+ */
+public class HashDiagnostics extends EvalFunc<DataBag> {
+    static final double DEFAULT_COLLISION_RATE = 0.01;
+
+    private final EncodingPlan plan;
+    private final double collisionRate;
+
+    public HashDiagnostics(String dimension, String formula, String schema) {
+        this(dimension, formula, schema, "");
+    }
+
+    public HashDiagnostics(String dimension, String formula, String schema, String options) {
+        Map<String, String> optionMap = EncodeVector.parseOptions(options);
+        int maxInteractions = optionMap.containsKey("maxInteractions") ?
+                Integer.parseInt(optionMap.remove("maxInteractions")) : EncodingPlan.DEFAULT_MAX_INTERACTIONS;
+        // threads don't change which features are encoded
+        optionMap.remove("threads");
+        optionMap.remove("parallelThreshold");
+        if (optionMap.containsKey("collisionRate")) {
+            collisionRate = Double.parseDouble(optionMap.remove("collisionRate"));
+            if (collisionRate <= 0 || collisionRate >= 1) {
+                throw new IllegalArgumentException("Collision rate must be between 0 and 1 but was " + collisionRate);
+            }
+        } else {
+            collisionRate = DEFAULT_COLLISION_RATE;
+        }
+        if (optionMap.size() > 0) {
+            throw new IllegalArgumentException("Extra options supplied: " + Joiner.on(" ").join(optionMap.keySet()));
+        }
+
+        plan = new EncodingPlan(Integer.parseInt(dimension), Formula.parse(formula), Schema.parse(schema),
+                new ConstantValueEncoder("- bias -"), maxInteractions);
+    }
+
+    @Override
+    public DataBag exec(Tuple input) throws IOException {
+        int terms = plan.termCount();
+        Stats[] stats = new Stats[terms + 1];
+        for (int t = 0; t < terms; t++) {
+            stats[t] = new Stats(plan.termName(t), plan.termProbes(t), plan.dimension());
+        }
+        Stats all = new Stats("*", 0, plan.dimension());
+        stats[terms] = all;
+
+        Collector collector = new Collector(stats);
+        for (Tuple row : (DataBag) input.get(0)) {
+            all.nonZeros += plan.inspect(row, collector);
+            for (Stats s : stats) {
+                s.rows++;
+            }
+        }
+
+        // features that share a location with a different feature
+        for (Stats s : stats) {
+            for (Long feature : s.features) {
+                if (collector.colliding.contains(feature)) {
+                    s.observed++;
+                }
+            }
+        }
+
+        double locations = 0;
+        for (int t = 0; t < terms; t++) {
+            locations += (double) stats[t].probes * stats[t].features.size();
+        }
+
+        DataBag r = BagFactory.getInstance().newDefaultBag();
+        for (Stats s : stats) {
+            r.add(s.asTuple(locations, collisionRate));
+        }
+        return r;
+    }
+
+    /**
+     * Records which features go where.
+     */
+    private static class Collector implements EncodingPlan.FeatureListener {
+        private final Stats[] stats;
+        private final Stats all;
+
+        // the first feature seen at each location
+        private final Map<Integer, Long> owners = Maps.newHashMap();
+        private final Set<Long> colliding = Sets.newHashSet();
+
+        private Stats current;
+
+        Collector(Stats[] stats) {
+            this.stats = stats;
+            this.all = stats[stats.length - 1];
+        }
+
+        public void startTerm(int term) {
+            current = stats[term];
+        }
+
+        public void feature(long identity, int index) {
+            current.features.add(identity);
+            current.occupied.set(index);
+            current.nonZeros++;
+            all.features.add(identity);
+            all.occupied.set(index);
+
+            Long owner = owners.get(index);
+            if (owner == null) {
+                owners.put(index, identity);
+            } else if (owner != identity) {
+                colliding.add(owner);
+                colliding.add(identity);
+            }
+        }
+    }
+
+    private static class Stats {
+        private final String name;
+        private final int probes;
+        private final int dimension;
+
+        private final Set<Long> features = Sets.newHashSet();
+        private final BitSet occupied;
+        private long rows;
+        private long nonZeros;
+        private long observed;
+
+        Stats(String name, int probes, int dimension) {
+            this.name = name;
+            this.probes = probes;
+            this.dimension = dimension;
+            this.occupied = new BitSet(dimension);
+        }
+
+        /**
+         * Summarizes the statistics.
+         *
+         * @param locations     The total number of locations taken by all of the features of all
+         *                      terms, counting each probe separately.
+         * @param collisionRate The target fraction of colliding features.
+         */
+        Tuple asTuple(double locations, double collisionRate) throws IOException {
+            // the whole vector has a mix of probes so use the average
+            double p = probes > 0 ? probes : features.isEmpty() ? 0 : locations / features.size();
+            double own = p * features.size();
+
+            // a feature collides if any of its probes lands on a location taken by another feature
+            double expected = features.size() * (1 - Math.exp(-p * Math.max(0, locations - p) / dimension));
+            long recommended = (long) Math.ceil(p * own / -Math.log1p(-collisionRate));
+
+            Tuple r = TupleFactory.getInstance().newTuple(8);
+            r.set(0, name);
+            r.set(1, rows);
+            r.set(2, (long) features.size());
+            r.set(3, (long) occupied.cardinality());
+            r.set(4, expected);
+            r.set(5, observed);
+            r.set(6, rows == 0 ? 0.0 : (double) nonZeros / rows);
+            r.set(7, Math.max(1, recommended));
+            return r;
+        }
+    }
+}
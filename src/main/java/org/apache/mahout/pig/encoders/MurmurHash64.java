@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.encoders;
+
+/**
+ * MurmurHash64A over a slice of a byte array.  This produces exactly the same values as
+ * Mahout's MurmurHash.hash64A, but doesn't need a ByteBuffer for each call.
+ */
+final class MurmurHash64 {
+    private static final long M = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+
+    private MurmurHash64() {
+    }
+
+    static long hash64A(byte[] data, int offset, int length, int seed) {
+        long h = seed ^ (length * M);
+
+        int end = offset + (length & ~7);
+        for (int i = offset; i < end; i += 8) {
+            long k = (data[i] & 0xFFL)
+                    | (data[i + 1] & 0xFFL) << 8
+                    | (data[i + 2] & 0xFFL) << 16
+                    | (data[i + 3] & 0xFFL) << 24
+                    | (data[i + 4] & 0xFFL) << 32
+                    | (data[i + 5] & 0xFFL) << 40
+                    | (data[i + 6] & 0xFFL) << 48
+                    | (data[i + 7] & 0xFFL) << 56;
+            k *= M;
+            k ^= k >>> R;
+            k *= M;
+
+            h ^= k;
+            h *= M;
+        }
+
+        int remaining = length & 7;
+        if (remaining > 0) {
+            long k = 0;
+            for (int i = 0; i < remaining; i++) {
+                k |= (data[end + i] & 0xFFL) << (8 * i);
+            }
+            h ^= k;
+            h *= M;
+        }
+
+        h ^= h >>> R;
+        h *= M;
+        h ^= h >>> R;
+        return h;
+    }
+}
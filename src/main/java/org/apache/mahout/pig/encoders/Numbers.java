@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.encoders;
+
+import com.google.common.base.Charsets;
+import org.apache.pig.data.DataByteArray;
+
+/**
+ * Converts the values that Pig hands to UDFs into doubles without going through strings.
+ */
+class Numbers {
+    // a long with this many significant digits is always exactly representable as a double
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    // every power of ten up to 10^22 is exactly representable as a double
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+        }
+    }
+
+    private Numbers() {
+    }
+
+    /**
+     * Parses a number written in ASCII or UTF-8, giving exactly the same result as
+     * Double.parseDouble on the corresponding string.
+     * <p/>
+     * Ordinary decimal numbers with no more than 15 significant digits and a modest exponent are
+     * converted directly.  Since the digits and the power of ten are both exact doubles, a single
+     * multiplication or division rounds correctly.  Anything else, such as NaN or a number with
+     * many digits, is converted to a string and handed to Double.parseDouble.
+     *
+     * @throws NumberFormatException If the bytes aren't a number.
+     */
+    static double parseDouble(byte[] bytes, int offset, int n) {
+        int i = offset;
+        int end = offset + n;
+
+        // Double.parseDouble ignores leading and trailing control characters and spaces
+        while (i < end && (bytes[i] & 0xff) <= ' ') {
+            i++;
+        }
+        while (end > i && (bytes[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int significant = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                digits++;
+                if (mantissa != 0 || b != '0') {
+                    if (++significant > MAX_EXACT_DIGITS) {
+                        return slowParse(bytes, offset, n);
+                    }
+                    mantissa = 10 * mantissa + (b - '0');
+                }
+                if (point) {
+                    scale--;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return slowParse(bytes, offset, n);
+        }
+
+        if (i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int exponent = 0;
+            int exponentDigits = 0;
+            for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                if (++exponentDigits > 3) {
+                    return slowParse(bytes, offset, n);
+                }
+                exponent = 10 * exponent + (bytes[i] - '0');
+            }
+            if (exponentDigits == 0) {
+                return slowParse(bytes, offset, n);
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+
+        // trailing type suffixes and anything odd are left to the JDK
+        if (i != end) {
+            return slowParse(bytes, offset, n);
+        }
+
+        double r;
+        if (mantissa == 0) {
+            r = 0;
+        } else if (scale >= 0 && scale < POWERS_OF_TEN.length) {
+            r = mantissa * POWERS_OF_TEN[scale];
+        } else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+            r = mantissa / POWERS_OF_TEN[-scale];
+        } else {
+            return slowParse(bytes, offset, n);
+        }
+        return negative ? -r : r;
+    }
+
+    /**
+     * Converts any of the numeric values that Pig uses to a double.  Integers, longs and doubles
+     * are converted directly, floats are widened and byte arrays are parsed without building a
+     * string.
+     *
+     * @throws NumberFormatException If the value is a byte array or string that isn't a number.
+     */
+    static double toDouble(Object value) {
+        if (value instanceof Double) {
+            return (Double) value;
+        } else if (value instanceof Integer) {
+            return (Integer) value;
+        } else if (value instanceof Long) {
+            return (Long) value;
+        } else if (value instanceof Float) {
+            return (Float) value;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof DataByteArray) {
+            DataByteArray bytes = (DataByteArray) value;
+            return parseDouble(bytes.get(), 0, bytes.size());
+        } else {
+            return Double.parseDouble(value.toString());
+        }
+    }
+
+    private static double slowParse(byte[] bytes, int offset, int n) {
+        return Double.parseDouble(new String(bytes, offset, n, Charsets.UTF_8));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.encoders;
+
+import org.apache.mahout.pig.PigVector;
+import org.apache.pig.data.DataByteArray;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the elements of one sparse vector into reusable primitive arrays.  Clearing only
+ * touches the elements that were used so the cost of each row is proportional to the number of
+ * non-zeros rather than to the dimension of the vector.  Once the arrays have grown to the size
+ * needed by the widest row, encoding a row allocates nothing except the result.
+ */
+class SparseAccumulator implements ElementSink {
+    // open addressing table of index + 1, zero marks an empty slot
+    private int[] keys;
+    private double[] values;
+    private int mask;
+
+    // slots in the order they were first used
+    private int[] used;
+    private int size;
+
+    // scratch space for output
+    private int[] sortedIndices = new int[16];
+    private double[] sortedValues = new double[16];
+    private byte[] output = new byte[PigVector.maxEncodedSize(16, false)];
+
+    SparseAccumulator() {
+        allocate(64);
+    }
+
+    public void add(int index, double value) {
+        int slot = find(index);
+        if (keys[slot] == 0) {
+            keys[slot] = index + 1;
+            values[slot] = value;
+            used[size++] = slot;
+            if (2 * size > keys.length) {
+                grow();
+            }
+        } else {
+            values[slot] += value;
+        }
+    }
+
+    double get(int index) {
+        int slot = find(index);
+        return keys[slot] == 0 ? 0 : values[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            keys[used[i]] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * Encodes the accumulated elements using the compact format from {@link PigVector}.
+     */
+    DataByteArray toBytes(int cardinality, boolean floatValues) {
+        if (sortedIndices.length < size) {
+            sortedIndices = new int[keys.length];
+            sortedValues = new double[keys.length];
+        }
+        for (int i = 0; i < size; i++) {
+            sortedIndices[i] = keys[used[i]] - 1;
+        }
+        Arrays.sort(sortedIndices, 0, size);
+        for (int i = 0; i < size; i++) {
+            sortedValues[i] = values[find(sortedIndices[i])];
+        }
+
+        int max = PigVector.maxEncodedSize(size, floatValues);
+        if (output.length < max) {
+            output = new byte[Math.max(max, 2 * output.length)];
+        }
+        int length = PigVector.writeSparse(cardinality, sortedIndices, sortedValues, size, floatValues, output);
+        return new DataByteArray(output, 0, length);
+    }
+
+    private int find(int index) {
+        int key = index + 1;
+        int h = key * 0x9E3779B9;
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        double[] oldValues = values;
+        int[] oldUsed = used;
+        int n = size;
+
+        allocate(2 * oldKeys.length);
+        for (int i = 0; i < n; i++) {
+            int old = oldUsed[i];
+            int slot = find(oldKeys[old] - 1);
+            keys[slot] = oldKeys[old];
+            values[slot] = oldValues[old];
+            used[size++] = slot;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new double[capacity];
+        used = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+}
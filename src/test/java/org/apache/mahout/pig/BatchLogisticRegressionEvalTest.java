@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.mahout.classifier.sgd.L1;
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BatchLogisticRegressionEvalTest {
+    private static final List<String> CATEGORIES = ImmutableList.of("a", "b", "c");
+
+    @Test
+    public void testScorerMatchesMahout() throws IOException {
+        Random gen = new Random(1);
+        Classifier classifier = new Classifier(CATEGORIES, trainedModel(gen));
+        LinearScorer scorer = new LinearScorer(classifier);
+
+        // a freshly read model still owes regularization that classifyFull applies first
+        OnlineLogisticRegression model = copy(classifier).getModel();
+        assertEquals(3, scorer.numCategories());
+        assertEquals(100, scorer.numFeatures());
+
+        double[] p = new double[3];
+        PigVector.Accessor accessor = new PigVector.Accessor();
+        for (int i = 0; i < 100; i++) {
+            Vector v = randomVector(gen);
+            Vector expected = model.classifyFull(v);
+            int best = scorer.score(accessor.wrap(PigVector.toBytes(v)), p);
+            assertEquals(expected.maxValueIndex(), best);
+            for (int k = 0; k < 3; k++) {
+                assertEquals(expected.get(k), p[k], 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testBag() throws IOException {
+        Random gen = new Random(2);
+        Classifier classifier = new Classifier(CATEGORIES, trainedModel(gen));
+        BatchLogisticRegressionEval eval = new BatchLogisticRegressionEval(classifier, true);
+        OnlineLogisticRegression model = copy(classifier).getModel();
+
+        DataBag rows = BagFactory.getInstance().newDefaultBag();
+        for (int i = 0; i < 50; i++) {
+            Tuple row = TupleFactory.getInstance().newTuple(3);
+            row.set(0, PigVector.toBytes(randomVector(gen)));
+            row.set(1, i);
+            row.set(2, "x" + i);
+            rows.add(row);
+        }
+
+        DataBag r = eval.exec(TupleFactory.getInstance().newTuple(rows));
+        assertEquals(50, r.size());
+        Iterator<Tuple> in = rows.iterator();
+        for (Tuple out : r) {
+            Tuple row = in.next();
+            Vector p = model.classifyFull(PigVector.fromBytes((DataByteArray) row.get(0)));
+
+            assertEquals(5, out.size());
+            assertEquals(row.get(1), out.get(0));
+            assertEquals(row.get(2), out.get(1));
+            assertEquals(CATEGORIES.get(p.maxValueIndex()), out.get(2));
+            assertEquals(p.maxValue(), (Double) out.get(3), 1e-12);
+            Tuple all = (Tuple) out.get(4);
+            for (int k = 0; k < 3; k++) {
+                assertEquals(p.get(k), (Double) all.get(k), 1e-12);
+            }
+        }
+    }
+
+    /**
+     * Returns a model that has been trained but not closed so that regularization is still owed.
+     */
+    private OnlineLogisticRegression trainedModel(Random gen) {
+        OnlineLogisticRegression model = new OnlineLogisticRegression(3, 100, new L1()).lambda(1e-2);
+        for (int i = 0; i < 500; i++) {
+            Vector v = randomVector(gen);
+            model.train(gen.nextInt(3), v);
+        }
+        return model;
+    }
+
+    private Classifier copy(Classifier classifier) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        classifier.write(out);
+        out.close();
+
+        Classifier r = new Classifier();
+        r.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        return r;
+    }
+
+    private Vector randomVector(Random gen) {
+        Vector v = new RandomAccessSparseVector(100);
+        for (int k = 0; k < 10; k++) {
+            v.set(gen.nextInt(100), gen.nextGaussian());
+        }
+        return v;
+    }
+}
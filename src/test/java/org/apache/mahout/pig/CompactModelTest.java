@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.mahout.classifier.sgd.L1;
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompactModelTest {
+    private static final List<String> CATEGORIES = ImmutableList.of("a", "b", "c");
+
+    @Test
+    public void testHalf() {
+        float[] exact = {0, 1, -2, 0.5f, 65504, -65504, 6.1035156e-5f, 5.9604645e-8f, Float.POSITIVE_INFINITY};
+        for (float x : exact) {
+            assertEquals(x, MappedModel.fromHalf(MappedModel.toHalf(x)), 0);
+        }
+        assertEquals(Float.POSITIVE_INFINITY, MappedModel.fromHalf(MappedModel.toHalf(1e6f)), 0);
+        assertTrue(Float.isNaN(MappedModel.fromHalf(MappedModel.toHalf(Float.NaN))));
+
+        Random gen = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            float x = (float) (gen.nextGaussian() * Math.exp(gen.nextGaussian() * 3));
+            if (Math.abs(x) > 1e-4 && Math.abs(x) < 60000) {
+                assertEquals(x, MappedModel.fromHalf(MappedModel.toHalf(x)), Math.abs(x) / 2048);
+            }
+        }
+    }
+
+    @Test
+    public void testSparse() throws IOException {
+        Classifier classifier = sparseModel();
+        LinearScorer full = new LinearScorer(classifier);
+        for (MappedModel.Encoding encoding : MappedModel.Encoding.values()) {
+            File f = File.createTempFile("model", "sparse");
+            f.deleteOnExit();
+            MappedModel.writeSparse(classifier, f, encoding, 0);
+            // much smaller than the dense coefficients
+            assertTrue(f.length() < 1000 * 2 * 8 / 2);
+
+            LinearScorer compact = MappedModel.open(f);
+            assertEquals(CATEGORIES, compact.getCategories());
+
+            Tuple r = new CompareModels(full, compact).exec(TupleFactory.getInstance().newTuple(testData()));
+            assertEquals(200L, r.get(0));
+            if (encoding == MappedModel.Encoding.DOUBLE) {
+                assertEquals(0, (Double) r.get(3), 0);
+                assertEquals(1, (Double) r.get(4), 0);
+                assertEquals(0, (Double) r.get(5), 1e-12);
+            } else {
+                assertEquals(0, (Double) r.get(3), 0.05);
+                assertEquals(1, (Double) r.get(4), 0.05);
+                assertEquals(0, (Double) r.get(5), 0.05);
+            }
+        }
+    }
+
+    @Test
+    public void testThreshold() throws IOException {
+        Classifier classifier = sparseModel();
+        File f = File.createTempFile("model", "sparse");
+        f.deleteOnExit();
+        // drops everything
+        MappedModel.writeSparse(classifier, f, MappedModel.Encoding.FLOAT, 100);
+
+        LinearScorer compact = MappedModel.open(f);
+        double[] p = new double[3];
+        PigVector.Accessor accessor = new PigVector.Accessor();
+        assertEquals(0, compact.score(accessor.wrap(PigVector.toBytes(vector(new Random(2)))), p));
+        assertEquals(1.0 / 3, p[1], 1e-12);
+    }
+
+    @Test
+    public void testThresholdAfterRegularization() throws IOException {
+        // trained but not closed so that regularization is still owed
+        Random gen = new Random(5);
+        OnlineLogisticRegression model = new OnlineLogisticRegression(3, 1000, new L1()).lambda(1e-2);
+        for (int i = 0; i < 2000; i++) {
+            Vector v = vector(gen);
+            model.train(gen.nextInt(3), v);
+        }
+        Classifier classifier = new Classifier(CATEGORIES, model);
+
+        double threshold = 0.05;
+        File f = File.createTempFile("model", "sparse");
+        f.deleteOnExit();
+        MappedModel.writeSparse(classifier, f, MappedModel.Encoding.DOUBLE, threshold);
+
+        // the threshold applies to the coefficients the full model scores with
+        OnlineLogisticRegression expected = LinearScorer.caughtUp(model);
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 1000; j++) {
+                if (Math.abs(expected.getBeta().getQuick(i, j)) <= threshold) {
+                    expected.setBeta(i, j, 0);
+                }
+            }
+        }
+        LinearScorer reference = new LinearScorer(new Classifier(CATEGORIES, expected));
+        Tuple r = new CompareModels(reference, MappedModel.open(f)).exec(TupleFactory.getInstance().newTuple(testData()));
+        assertEquals(1, (Double) r.get(4), 0);
+        assertEquals(0, (Double) r.get(5), 1e-12);
+    }
+
+    private Classifier sparseModel() {
+        Random gen = new Random(3);
+        OnlineLogisticRegression model = new OnlineLogisticRegression(3, 1000, new L1());
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 1000; j++) {
+                if (gen.nextDouble() < 0.1) {
+                    model.setBeta(i, j, gen.nextGaussian() * 3);
+                }
+            }
+        }
+        return new Classifier(CATEGORIES, model);
+    }
+
+    private DataBag testData() throws IOException {
+        Random gen = new Random(4);
+        DataBag r = BagFactory.getInstance().newDefaultBag();
+        for (int i = 0; i < 200; i++) {
+            Tuple example = TupleFactory.getInstance().newTuple(2);
+            example.set(0, CATEGORIES.get(gen.nextInt(3)));
+            example.set(1, PigVector.toBytes(vector(gen)));
+            r.add(example);
+        }
+        return r;
+    }
+
+    private Vector vector(Random gen) {
+        Vector v = new RandomAccessSparseVector(1000);
+        for (int k = 0; k < 30; k++) {
+            v.set(gen.nextInt(1000), gen.nextGaussian());
+        }
+        return v;
+    }
+}
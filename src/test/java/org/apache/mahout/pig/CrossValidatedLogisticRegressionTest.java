@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import org.apache.mahout.classifier.sgd.PolymorphicWritable;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DefaultDataBag;
+import org.apache.pig.data.DefaultTuple;
+import org.apache.pig.data.Tuple;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CrossValidatedLogisticRegressionTest {
+    @Test
+    public void testModelAndFolds() throws IOException {
+        CrossValidatedLogisticRegression cv = new CrossValidatedLogisticRegression("categories = 0 1, features=4, iterations=3, seed=7, folds=4");
+        cv.accumulate(data(1000));
+        Tuple r = cv.getValue();
+        assertEquals(2, r.size());
+
+        // the model is the usual serialized classifier
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(((DataByteArray) r.get(0)).get()));
+        Classifier c = PolymorphicWritable.read(in, Classifier.class);
+        in.close();
+        assertEquals(4, c.getModel().numFeatures());
+
+        DataBag folds = (DataBag) r.get(1);
+        assertEquals(4, folds.size());
+        int expectedFold = 1;
+        long total = 0;
+        for (Tuple fold : folds) {
+            assertEquals(5, fold.size());
+            assertEquals(expectedFold++, fold.get(0));
+            total += (Long) fold.get(1);
+            assertTrue((Double) fold.get(2) < 0);
+            assertTrue((Double) fold.get(3) > 0.9);
+            assertTrue((Double) fold.get(4) > 0.95);
+        }
+        assertEquals(1000, total);
+        assertNotNull(cv.outputSchema(null));
+    }
+
+    @Test(expected = BadClassifierSpecException.class)
+    public void testNeedsFolds() throws IOException {
+        new CrossValidatedLogisticRegression("categories = 0 1, features=4");
+    }
+
+    private Tuple data(int n) throws IOException {
+        Random gen = new Random(2);
+        Vector direction = new DenseVector(new double[]{gen.nextGaussian(), gen.nextGaussian(), gen.nextGaussian(), gen.nextGaussian()});
+        DataBag examples = new DefaultDataBag();
+        for (int i = 0; i < n; i++) {
+            Vector v = new DenseVector(new double[]{gen.nextGaussian(), gen.nextGaussian(), gen.nextGaussian(), gen.nextGaussian()});
+            Tuple x = new DefaultTuple();
+            x.append(v.dot(direction) > 0 ? "1" : "0");
+            x.append(PigVector.toBytes(v));
+            examples.add(x);
+        }
+        Tuple data = new DefaultTuple();
+        data.append(examples);
+        return data;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import org.apache.mahout.classifier.sgd.PolymorphicWritable;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.Vector;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DistributedLogisticRegressionTest {
+    private static final String OPTIONS = "categories = 0 1, features=4, inMemory=false, iterations=5";
+
+    @Test
+    public void testAlgebraicTraining() throws IOException {
+        Random gen = new Random(1);
+        Vector n = randomVector(gen);
+
+        DistributedLogisticRegression.Initial initial = new DistributedLogisticRegression.Initial(OPTIONS);
+        DistributedLogisticRegression.Intermed intermed = new DistributedLogisticRegression.Intermed(OPTIONS);
+        DistributedLogisticRegression.Final last = new DistributedLogisticRegression.Final(OPTIONS);
+
+        // two combiners each see part of the data and the reducer sees a few raw examples as well
+        DataBag finalInput = BagFactory.getInstance().newDefaultBag();
+        for (int combiner = 0; combiner < 2; combiner++) {
+            DataBag partials = BagFactory.getInstance().newDefaultBag();
+            for (int i = 0; i < 300; i++) {
+                partials.add(initial.exec(TupleFactory.getInstance().newTuple(bagOf(example(gen, n)))));
+            }
+            finalInput.add(intermed.exec(TupleFactory.getInstance().newTuple(partials)));
+        }
+        for (int i = 0; i < 100; i++) {
+            finalInput.add(initial.exec(TupleFactory.getInstance().newTuple(bagOf(example(gen, n)))));
+        }
+
+        Classifier c = read(last.exec(TupleFactory.getInstance().newTuple(finalInput)));
+        assertEquals(2, c.getCategories().size());
+        Vector v = c.getModel().getBeta().viewRow(0);
+        assertEquals(1.0, n.dot(v) / (n.norm(2) * v.norm(2)), 2e-2);
+    }
+
+    @Test
+    public void testWeighting() throws IOException {
+        Random gen = new Random(2);
+        Vector n = randomVector(gen);
+
+        DataBag small = BagFactory.getInstance().newDefaultBag();
+        for (int i = 0; i < 100; i++) {
+            small.add(example(gen, n));
+        }
+        DataBag large = BagFactory.getInstance().newDefaultBag();
+        for (int i = 0; i < 300; i++) {
+            large.add(example(gen, n));
+        }
+        DataByteArray m1 = new LogisticRegression(OPTIONS).exec(TupleFactory.getInstance().newTuple(small));
+        DataByteArray m2 = new LogisticRegression(OPTIONS).exec(TupleFactory.getInstance().newTuple(large));
+        Matrix b1 = read(m1).getModel().getBeta();
+        Matrix b2 = read(m2).getModel().getBeta();
+
+        DataBag partials = BagFactory.getInstance().newDefaultBag();
+        partials.add(partial(m1, 100));
+        partials.add(partial(m2, 300));
+        Tuple input = TupleFactory.getInstance().newTuple(partials);
+
+        Matrix weighted = read(new DistributedLogisticRegression.Final(OPTIONS).exec(input)).getModel().getBeta();
+        Matrix equal = read(new DistributedLogisticRegression.Final(OPTIONS + ", weighted=false").exec(input)).getModel().getBeta();
+        for (int j = 0; j < 4; j++) {
+            assertEquals((100 * b1.get(0, j) + 300 * b2.get(0, j)) / 400, weighted.get(0, j), 1e-12);
+            assertEquals((b1.get(0, j) + b2.get(0, j)) / 2, equal.get(0, j), 1e-12);
+        }
+    }
+
+    @Test
+    public void testOptions() throws IOException {
+        DistributedLogisticRegression lr = new DistributedLogisticRegression("categories = a b, features=10, weighted=false, iterations=3");
+        assertEquals(3, lr.getIterations());
+        assertTrue(lr.getInitial().endsWith("$Initial"));
+    }
+
+    private Tuple partial(DataByteArray model, long examples) throws IOException {
+        Tuple r = TupleFactory.getInstance().newTuple(4);
+        r.set(0, BagFactory.getInstance().newDefaultBag());
+        r.set(1, examples);
+        r.set(2, 1L);
+        r.set(3, model);
+        return r;
+    }
+
+    private DataBag bagOf(Tuple t) {
+        DataBag r = BagFactory.getInstance().newDefaultBag();
+        r.add(t);
+        return r;
+    }
+
+    private Tuple example(Random gen, Vector n) throws IOException {
+        Vector v = randomVector(gen);
+        Tuple x = TupleFactory.getInstance().newTuple(2);
+        x.set(0, v.dot(n) > 0 ? "1" : "0");
+        x.set(1, PigVector.toBytes(v));
+        return x;
+    }
+
+    private Vector randomVector(Random gen) {
+        Vector v = new DenseVector(4);
+        for (int i = 0; i < 4; i++) {
+            v.set(i, gen.nextGaussian());
+        }
+        return v;
+    }
+
+    private Classifier read(DataByteArray bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.get()));
+        try {
+            return PolymorphicWritable.read(in, Classifier.class);
+        } finally {
+            in.close();
+        }
+    }
+}
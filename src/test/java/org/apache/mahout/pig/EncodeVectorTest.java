@@ -16,14 +16,25 @@
 
 package org.apache.mahout.pig;
 
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.util.Version;
+import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.function.Functions;
 import org.apache.mahout.pig.encoders.EncodeVector;
+import org.apache.mahout.vectorizer.encoders.ConstantValueEncoder;
+import org.apache.mahout.vectorizer.encoders.ContinuousValueEncoder;
+import org.apache.mahout.vectorizer.encoders.FeatureVectorEncoder;
+import org.apache.mahout.vectorizer.encoders.LuceneTextValueEncoder;
+import org.apache.mahout.vectorizer.encoders.StaticWordValueEncoder;
+import org.apache.mahout.vectorizer.encoders.TextValueEncoder;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -78,4 +89,206 @@ public class EncodeVectorTest {
             assertTrue(e.getMessage().contains("Tuple doesn't have at least"));
         }
     }
+
+    @Test
+    public void testMatchesMahoutEncoders() throws IOException {
+        EncodeVector ev = new EncodeVector("1000", "1+x+w+t", "x:numeric, w:word, t:text");
+        FeatureVectorEncoder bias = new ConstantValueEncoder("- bias -");
+        FeatureVectorEncoder x = new ContinuousValueEncoder("x");
+        FeatureVectorEncoder w = new StaticWordValueEncoder("w");
+        FeatureVectorEncoder text = new TextValueEncoder("t");
+
+        String[] words = {"a", "b", "foo", "bar", "\u00e9t\u00e9", "x_1", "\u4e2d\u6587", "longer-word"};
+        Random gen = new Random(5);
+        Tuple t = TupleFactory.getInstance().newTuple(3);
+        for (int row = 0; row < 200; row++) {
+            t.set(0, gen.nextGaussian());
+            t.set(1, words[gen.nextInt(words.length)]);
+            StringBuilder s = new StringBuilder();
+            for (int i = gen.nextInt(30); i > 0; i--) {
+                s.append(words[gen.nextInt(words.length)]);
+                s.append(gen.nextBoolean() ? " " : ", ");
+            }
+            t.set(2, s.toString());
+
+            Vector ref = new RandomAccessSparseVector(1000);
+            bias.addToVector((byte[]) null, ref);
+            x.addToVector(t.get(0).toString(), ref);
+            w.addToVector(t.get(1).toString(), ref);
+            text.addToVector(t.get(2).toString(), ref);
+
+            Vector v = PigVector.fromBytes(ev.exec(t));
+            assertEquals(ref.getNumNondefaultElements(), v.getNumNondefaultElements());
+            assertEquals(0, ref.minus(v).norm(Double.POSITIVE_INFINITY), 1e-12);
+        }
+    }
+
+    @Test
+    public void testMatchesLuceneEncoder() throws IOException {
+        String analyzer = "org.apache.lucene.analysis.en.EnglishAnalyzer";
+        EncodeVector ev = new EncodeVector("1000", "t", "t:text(" + analyzer + ")");
+        EncodeVector parallel = new EncodeVector("1000", "t+u", "t:text(" + analyzer + "), u:text(" + analyzer + ")",
+                "threads=3, parallelThreshold=0");
+        LuceneTextValueEncoder text = new LuceneTextValueEncoder("t");
+        text.setAnalyzer(new EnglishAnalyzer(Version.LUCENE_31));
+        LuceneTextValueEncoder other = new LuceneTextValueEncoder("u");
+        other.setAnalyzer(new EnglishAnalyzer(Version.LUCENE_31));
+
+        String[] words = {"The", "running", "runs", "foo", "bar", "\u00e9t\u00e9", "\u4e2d\u6587", "x_1", "longer-word", "Foo's"};
+        Random gen = new Random(11);
+        Tuple t = TupleFactory.getInstance().newTuple(1);
+        Tuple t2 = TupleFactory.getInstance().newTuple(2);
+        try {
+            for (int row = 0; row < 200; row++) {
+                StringBuilder s = new StringBuilder();
+                for (int i = gen.nextInt(40); i > 0; i--) {
+                    s.append(words[gen.nextInt(words.length)]);
+                    s.append(gen.nextBoolean() ? " " : ". ");
+                }
+                String value = s.toString();
+
+                Vector ref = new RandomAccessSparseVector(1000);
+                text.addToVector(value, ref);
+
+                // strings and bytes from a load function tokenize the same way
+                t.set(0, value);
+                Vector v = PigVector.fromBytes(ev.exec(t));
+                assertEquals(0, ref.minus(v).norm(Double.POSITIVE_INFINITY), 1e-12);
+
+                t.set(0, new DataByteArray(value.getBytes("UTF-8")));
+                v = PigVector.fromBytes(ev.exec(t));
+                assertEquals(0, ref.minus(v).norm(Double.POSITIVE_INFINITY), 1e-12);
+
+                // rows extracted on whichever thread of a pool get the same terms
+                t2.set(0, value);
+                t2.set(1, value.toLowerCase());
+                other.addToVector(value.toLowerCase(), ref);
+                v = PigVector.fromBytes(parallel.exec(t2));
+                assertEquals(ref.getNumNondefaultElements(), v.getNumNondefaultElements());
+                assertEquals(0, ref.minus(v).norm(Double.POSITIVE_INFINITY), 1e-12);
+            }
+        } finally {
+            parallel.finish();
+        }
+    }
+
+    @Test
+    public void testParallelEncoding() throws IOException {
+        // a small dimension makes many elements sums of several features so the order of addition matters
+        String formula = "1+x+w+t+s+x*t+w*s";
+        String schema = "x:numeric, w:word, t:text, s:text";
+        EncodeVector serial = new EncodeVector("50", formula, schema, "maxInteractions=300");
+        EncodeVector parallel = new EncodeVector("50", formula, schema, "maxInteractions=300, threads=4, parallelThreshold=0");
+
+        Random gen = new Random(7);
+        Tuple t = TupleFactory.getInstance().newTuple(4);
+        try {
+            for (int row = 0; row < 100; row++) {
+                t.set(0, gen.nextGaussian());
+                t.set(1, "w" + gen.nextInt(20));
+                for (int field = 2; field < 4; field++) {
+                    StringBuilder text = new StringBuilder();
+                    for (int i = gen.nextInt(100); i > 0; i--) {
+                        text.append("t").append(gen.nextInt(500)).append(' ');
+                    }
+                    t.set(field, text.toString());
+                }
+                assertEquals(serial.exec(t), parallel.exec(t));
+            }
+        } finally {
+            parallel.finish();
+        }
+    }
+
+    @Test
+    public void testMissingNumericValue() throws IOException {
+        EncodeVector ev = new EncodeVector("100", "x+y", "x:numeric, y:word");
+        Tuple t = TupleFactory.getInstance().newTuple(2);
+        t.set(0, null);
+        t.set(1, "foo");
+        Vector v = PigVector.fromBytes(ev.exec(t));
+        assertEquals(1, v.zSum(), 0);
+    }
+
+    @Test
+    public void testNumericTypes() throws IOException {
+        EncodeVector ev = new EncodeVector("100", "x", "x:numeric");
+        Tuple t = TupleFactory.getInstance().newTuple(1);
+        t.set(0, 2.75);
+        DataByteArray expected = ev.exec(t);
+
+        Object[] values = {new DataByteArray("2.75"), new DataByteArray(" 275e-2"), "2.75", 2.75f};
+        for (Object value : values) {
+            t.set(0, value);
+            assertEquals(value.toString(), expected, ev.exec(t));
+        }
+
+        t.set(0, 3);
+        Vector v = PigVector.fromBytes(ev.exec(t));
+        assertEquals(3, v.zSum(), 0);
+        t.set(0, 3L);
+        assertEquals(0, v.minus(PigVector.fromBytes(ev.exec(t))).norm(1), 0);
+    }
+
+    @Test
+    public void testInteractions() throws IOException {
+        Tuple t = TupleFactory.getInstance().newTuple(3);
+        t.set(0, 3.0);
+        t.set(1, "foo");
+        t.set(2, "a b a");
+
+        // x contributes 3 at one location, w contributes 1 at two locations and the interaction
+        // contributes 3 at two more
+        EncodeVector ev = new EncodeVector("10000", "x*w", "x:numeric, w:word, t:text");
+        Vector v = PigVector.fromBytes(ev.exec(t));
+        assertEquals(3 + 2 + 6, v.zSum(), 1e-9);
+
+        // interactions with text are weighted the same way as text
+        double a = Math.log(3) / Math.log(2);
+        ev = new EncodeVector("10000", "t*w", "x:numeric, w:word, t:text");
+        v = PigVector.fromBytes(ev.exec(t));
+        assertEquals(2 * (a + 1) + 2 + 2 * (a + 1), v.zSum(), 1e-9);
+
+        // interactions don't depend on other rows and do depend on the values
+        Vector v1 = PigVector.fromBytes(ev.exec(t));
+        assertEquals(0, v.minus(v1).norm(1), 0);
+        t.set(1, "bar");
+        Vector v2 = PigVector.fromBytes(ev.exec(t));
+        assertTrue(v.minus(v2).norm(1) > 0);
+
+        // the bias can be part of an interaction
+        ev = new EncodeVector("10000", "(1+x)*w", "x:numeric, w:word, t:text");
+        v = PigVector.fromBytes(ev.exec(t));
+        assertEquals(1 + 3 + 2 + 2 + 6, v.zSum(), 1e-9);
+    }
+
+    @Test
+    public void testInteractionLimit() throws IOException {
+        StringBuilder s1 = new StringBuilder();
+        StringBuilder s2 = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            s1.append("a").append(i).append(' ');
+            s2.append("b").append(i).append(' ');
+        }
+        Tuple t = TupleFactory.getInstance().newTuple(2);
+        t.set(0, s1.toString());
+        t.set(1, s2.toString());
+
+        Vector base = PigVector.fromBytes(new EncodeVector("100000", "t+u", "t:text, u:text").exec(t));
+        Vector all = PigVector.fromBytes(new EncodeVector("100000", "t*u", "t:text, u:text").exec(t));
+        Vector limited = PigVector.fromBytes(new EncodeVector("100000", "t*u", "t:text, u:text", "maxInteractions=50").exec(t));
+
+        assertEquals(2 * 100 * 100, all.zSum() - base.zSum(), 1e-6);
+        assertEquals(2 * 50, limited.zSum() - base.zSum(), 1e-6);
+    }
+
+    @Test
+    public void testBadOption() {
+        try {
+            new EncodeVector("100", "x", "x:numeric", "maxInteraction=10");
+            fail("Should have rejected unknown option");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("maxInteraction"));
+        }
+    }
 }
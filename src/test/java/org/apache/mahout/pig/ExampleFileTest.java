@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ExampleFileTest {
+    @Test
+    public void testAppendAndRead() throws IOException {
+        File f = File.createTempFile("examples", "tmp");
+        f.deleteOnExit();
+        f.delete();
+
+        // a small window forces examples to straddle window boundaries
+        ExampleFile examples = new ExampleFile(f, 1000, 100);
+        Random gen = new Random(1);
+        List<Vector> vectors = Lists.newArrayList();
+        PigVector.Accessor accessor = new PigVector.Accessor();
+        for (int batch = 0; batch < 5; batch++) {
+            for (int i = 0; i < 20; i++) {
+                Vector v = new RandomAccessSparseVector(1000);
+                for (int k = gen.nextInt(30); k > 0; k--) {
+                    v.set(gen.nextInt(1000), gen.nextGaussian());
+                }
+                vectors.add(v);
+                examples.append(vectors.size() % 3, accessor.wrap(PigVector.toBytes(v)));
+            }
+        }
+        assertEquals(100, examples.size());
+
+        // every pass sees all the batches in order
+        for (int pass = 0; pass < 2; pass++) {
+            ExampleFile.Reader in = examples.read();
+            int n = 0;
+            while (in.next()) {
+                Vector v = vectors.get(n);
+                n++;
+                assertEquals(n % 3, in.target());
+                assertEquals(1000, in.features().size());
+                assertEquals(0, v.minus(in.features()).norm(1), 0);
+            }
+            assertEquals(100, n);
+        }
+
+        // ranges of examples can be read independently
+        for (int first = 0; first < 100; first += 17) {
+            ExampleFile.Reader range = examples.read(first, Math.min(100, first + 17));
+            int n = first;
+            while (range.next()) {
+                assertEquals(0, vectors.get(n).minus(range.features()).norm(1), 0);
+                n++;
+            }
+            assertEquals(Math.min(100, first + 17), n);
+        }
+
+        // more examples can be added after reading
+        examples.append(7, accessor.wrap(PigVector.toBytes(vectors.get(0))));
+        ExampleFile.Reader in = examples.read();
+        int n = 0;
+        while (in.next()) {
+            n++;
+        }
+        assertEquals(101, n);
+        assertEquals(7, in.target());
+
+        examples.clear();
+        assertFalse(f.exists());
+        assertFalse(examples.read().next());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ExampleStoreTest {
+    @Test
+    public void testRoundTrip() {
+        checkStore(false, 0);
+        checkStore(true, 1e-6);
+    }
+
+    @Test
+    public void testFootprint() {
+        ExampleStore doubles = new ExampleStore(false);
+        ExampleStore floats = new ExampleStore(true);
+        PigVector.Accessor accessor = new PigVector.Accessor();
+        Random gen = new Random(2);
+        for (int i = 0; i < 5000; i++) {
+            Vector v = randomVector(gen);
+            doubles.add(0, accessor.wrap(PigVector.toBytes(v)));
+            floats.add(0, accessor.wrap(PigVector.toBytes(v)));
+        }
+        assertTrue(floats.footprint() < doubles.footprint());
+        // about 12 bytes per non-zero plus 8 per example, allowing for unused capacity
+        assertTrue(doubles.footprint() < 2 * (5000 * 8 + 5000 * 20 * 12));
+    }
+
+    private void checkStore(boolean floatValues, double epsilon) {
+        ExampleStore store = new ExampleStore(floatValues);
+        PigVector.Accessor accessor = new PigVector.Accessor();
+        Random gen = new Random(1);
+        List<Vector> vectors = Lists.newArrayList();
+        for (int i = 0; i < 3000; i++) {
+            Vector v = randomVector(gen);
+            vectors.add(v);
+            store.add(i % 5, accessor.wrap(PigVector.toBytes(v)));
+        }
+        assertEquals(3000, store.size());
+
+        // examples can be read in any order through the same vector
+        ExampleStore.Cursor cursor = store.cursor(1000);
+        for (int i = 0; i < 10000; i++) {
+            int k = gen.nextInt(store.size());
+            cursor.load(k);
+            assertEquals(k % 5, cursor.target());
+            assertEquals(vectors.get(k).getNumNondefaultElements(), cursor.features().getNumNondefaultElements());
+            assertEquals(0, vectors.get(k).minus(cursor.features()).norm(Double.POSITIVE_INFINITY), epsilon);
+        }
+
+        store.clear();
+        assertEquals(0, store.size());
+    }
+
+    private Vector randomVector(Random gen) {
+        Vector v = new RandomAccessSparseVector(1000);
+        for (int k = gen.nextInt(40); k > 0; k--) {
+            v.set(gen.nextInt(1000), gen.nextGaussian());
+        }
+        return v;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.mahout.classifier.sgd.L1;
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.*;
+
+public class KeyedLogisticRegressionEvalTest {
+    @Test
+    public void testModelSelection() throws IOException {
+        final ModelCache cache = new ModelCache(1L << 20);
+        KeyedLogisticRegressionEval eval = new KeyedLogisticRegressionEval("sequence=models/part-*, maxModels=2") {
+            @Override
+            ModelCache.Lease acquire(final String key) throws IOException {
+                return cache.acquire(key, new Callable<LinearScorer>() {
+                    public LinearScorer call() throws Exception {
+                        return model(key);
+                    }
+                });
+            }
+        };
+
+        Vector v = new RandomAccessSparseVector(10);
+        v.set(3, 1);
+        for (String key : new String[]{"a", "b", "a", "c", "d", "c"}) {
+            Tuple input = TupleFactory.getInstance().newTuple(2);
+            input.set(0, key);
+            input.set(1, PigVector.toBytes(v));
+            // each model picks the second of its categories for this vector
+            assertEquals(key + "1", eval.exec(input));
+            assertTrue(eval.loadedModels() <= 2);
+        }
+        assertEquals(2, eval.loadedModels());
+
+        // models dropped by the UDF are no longer leased and can be evicted
+        cache.setBudget(0);
+        assertEquals(2, cache.models());
+
+        eval.finish();
+        assertEquals(0, eval.loadedModels());
+        cache.setBudget(0);
+        assertEquals(0, cache.models());
+    }
+
+    @Test
+    public void testFilesFoundOnce() throws IOException, InterruptedException {
+        Configuration conf = new Configuration();
+        FileSystem fs = FileSystem.getLocal(conf);
+        File dir = Files.createTempDirectory("models").toFile();
+        Path file = new Path(new File(dir, "part-r-00000").getAbsolutePath());
+        RecordWriter<Text, Classifier> writer = PigModelStorage.IndexedModelOutputFormat.writer(fs, conf, file);
+        for (String key : new String[]{"a", "b"}) {
+            OnlineLogisticRegression model = new OnlineLogisticRegression(2, 10, new L1());
+            writer.write(new Text(key), new Classifier(ImmutableList.of(key + "0", key + "1"), model));
+        }
+        writer.close(null);
+
+        Map<String, String> options = Maps.newHashMap();
+        options.put("sequence", dir.getAbsolutePath());
+        ModelSource repository = ModelSource.repository(options);
+        List<?> a = (List<?>) repository.withKey("a").identity(conf);
+
+        // once found, the files aren't listed again for other keys
+        fs.delete(new Path(dir.getAbsolutePath()), true);
+        List<?> b = (List<?>) repository.withKey("b").identity(conf);
+        assertEquals(a.get(0), b.get(0));
+        assertEquals("b", b.get(1));
+
+        options.put("sequence", dir.getAbsolutePath());
+        List<?> fresh = (List<?>) ModelSource.repository(options).withKey("b").identity(conf);
+        assertFalse(a.get(0).equals(fresh.get(0)));
+    }
+
+    @Test
+    public void testNullKey() throws IOException {
+        KeyedLogisticRegressionEval eval = new KeyedLogisticRegressionEval("sequence=models");
+        assertNull(eval.exec(TupleFactory.getInstance().newTuple(2)));
+    }
+
+    @Test(expected = BadClassifierSpecException.class)
+    public void testKeyNotAllowed() {
+        new KeyedLogisticRegressionEval("sequence=models, key=3");
+    }
+
+    @Test(expected = BadClassifierSpecException.class)
+    public void testMissingModels() {
+        new KeyedLogisticRegressionEval("maxModels=3");
+    }
+
+    private static LinearScorer model(String key) {
+        OnlineLogisticRegression model = new OnlineLogisticRegression(2, 10, new L1());
+        model.setBeta(0, 3, 5);
+        return new LinearScorer(new Classifier(ImmutableList.of(key + "0", key + "1"), model));
+    }
+}
@@ -48,6 +48,44 @@ public class LogisticRegressionTest {
         lr = new LogisticRegression("categories = a b c, features=10000, decayExponent=0.3 ,stepOffset=123, learningRate=2.1, lambda=0.001, iterations=12, inMemory=false");
         assertEquals(2.1 * Math.pow(123, -0.3), lr.getModel().currentLearningRate());
         assertEquals(0.001, lr.getModel().getLambda());
+        assertEquals(1, lr.getThreads());
+
+        lr = new LogisticRegression("categories = a b, features=10000, threads=8");
+        assertEquals(8, lr.getThreads());
+
+        lr = new LogisticRegression("categories = a b, features=10000, floatValues=true");
+        assertTrue(lr.getTrainingDataFootprint() > 0);
+
+        try {
+            new LogisticRegression("categories = a b, features=10000, inMemory=false, shuffle=permute");
+            fail("Should have failed");
+        } catch (BadClassifierSpecException e) {
+            assertTrue("Can't permute spilled data", e.getMessage().startsWith("Can't permute"));
+        }
+
+        lr = new LogisticRegression("categories = a b, features=10000, streaming=true");
+        assertTrue(lr.isStreaming());
+
+        try {
+            new LogisticRegression("categories = a b, features=10000, streaming=true, iterations=2");
+            fail("Should have failed");
+        } catch (BadClassifierSpecException e) {
+            assertTrue("Streaming needs one pass", e.getMessage().startsWith("Streaming training can only make a single pass"));
+        }
+
+        try {
+            new LogisticRegression("categories = a b, features=10000, shuffle=sometimes");
+            fail("Should have failed");
+        } catch (BadClassifierSpecException e) {
+            assertTrue("Bad shuffle", e.getMessage().startsWith("Unknown shuffle method"));
+        }
+
+        try {
+            new LogisticRegression("categories = a b, features=10000, threads=0");
+            fail("Should have failed");
+        } catch (BadClassifierSpecException e) {
+            assertTrue("No threads", e.getMessage().startsWith("Must have at least one thread"));
+        }
 
         try {
             new LogisticRegression("categories = a , features=10000");
@@ -73,6 +111,317 @@ public class LogisticRegressionTest {
 
     @Test
     public void testTraining() throws IOException {
+        // training from tmp file allows absolute repeatability
+        checkTraining("categories = 0 1, features=4, inMemory=false, iterations=5");
+    }
+
+    @Test
+    public void testParallelTraining() throws IOException {
+        checkTraining("categories = 0 1, features=4, inMemory=false, iterations=5, threads=4");
+        checkTraining("categories = 0 1, features=4, iterations=5, threads=3");
+
+        // the learning rate schedule counts the examples of every shard
+        LogisticRegression lr = new LogisticRegression("categories = 0 1, features=4, iterations=3, threads=4");
+        lr.accumulate(separableData(1000));
+        lr.getValue();
+        assertEquals(3000, lr.getModel().getStep(), 3);
+    }
+
+    @Test
+    public void testStreamingTraining() throws IOException {
+        // data arrives in several batches as it would from pig
+        LogisticRegression streaming = new LogisticRegression("categories = 0 1, features=4, streaming=true");
+        LogisticRegression buffered = new LogisticRegression("categories = 0 1, features=4, inMemory=false");
+
+        Random gen = new Random(3);
+        Vector n = new DenseVector(new double[]{gen.nextGaussian(), gen.nextGaussian(), gen.nextGaussian(), gen.nextGaussian()});
+        for (int batch = 0; batch < 10; batch++) {
+            DataBag examples = new DefaultDataBag();
+            for (int i = 0; i < 200; i++) {
+                Vector v = new DenseVector(new double[]{gen.nextGaussian(), gen.nextGaussian(), gen.nextGaussian(), gen.nextGaussian()});
+                Tuple x = new DefaultTuple();
+                x.append(v.dot(n) > 0 ? "1" : "0");
+                x.append(PigVector.toBytes(v));
+                examples.add(x);
+            }
+            Tuple data = new DefaultTuple();
+            data.append(examples);
+            streaming.accumulate(data);
+            buffered.accumulate(data);
+        }
+
+        // examples are used as they arrive so the model is trained before getValue is called
+        Vector v = new DenseVector(4).assign(streaming.getModel().getBeta().viewRow(0));
+        assertTrue(v.norm(1) > 0);
+        assertEquals(1.0, n.dot(v) / (n.norm(2) * v.norm(2)), 5e-2);
+
+        // and is the same as what we get with a single pass over spilled examples in the same order
+        streaming.getValue();
+        buffered.getValue();
+        assertEquals(0, v.minus(buffered.getModel().getBeta().viewRow(0)).norm(1), 1e-9);
+    }
+
+    @Test
+    public void testRepeatability() throws IOException {
+        String[] configurations = {
+                "categories = 0 1, features=4, iterations=3, seed=17",
+                "categories = 0 1, features=4, iterations=3, seed=17, shuffle=block, blockSize=50",
+                "categories = 0 1, features=4, iterations=3, seed=17, shuffle=block, blockSize=50, inMemory=false",
+                "categories = 0 1, features=4, iterations=3, seed=17, threads=2"
+        };
+        for (String options : configurations) {
+            Vector v1 = checkTraining(options);
+            Vector v2 = checkTraining(options);
+            assertEquals(options, 0, v1.minus(v2).norm(1), 0);
+        }
+    }
+
+    @Test
+    public void testHoldoutValidation() throws IOException {
+        LogisticRegression lr = new LogisticRegression("categories = 0 1, features=4, iterations=50, seed=3, holdout=0.2, minImprovement=1e-3");
+        lr.accumulate(separableData(1000));
+        lr.getValue();
+
+        List<ValidationStats> passes = lr.getValidation();
+        assertTrue(passes.size() > 1);
+        assertTrue("should stop early", passes.size() < 50);
+        ValidationStats last = passes.get(passes.size() - 1);
+        assertTrue(last.examples() > 120 && last.examples() < 280);
+        assertTrue(last.accuracy() > 0.9);
+        assertTrue(last.auc() > 0.95);
+        assertTrue(last.logLikelihood() < 0);
+        assertTrue(last.logLikelihood() > passes.get(0).logLikelihood() - 1e-3);
+
+        // held out examples spilled to disk give the same scores
+        LogisticRegression spilled = new LogisticRegression("categories = 0 1, features=4, iterations=50, seed=3, holdout=0.2, minImprovement=1e-3, inMemory=false");
+        spilled.accumulate(separableData(1000));
+        spilled.getValue();
+        List<ValidationStats> spilledPasses = spilled.getValidation();
+        assertEquals(passes.size(), spilledPasses.size());
+        for (int i = 0; i < passes.size(); i++) {
+            assertEquals(passes.get(i).examples(), spilledPasses.get(i).examples());
+            assertEquals(passes.get(i).logLikelihood(), spilledPasses.get(i).logLikelihood(), 1e-6);
+        }
+    }
+
+    @Test
+    public void testRestoresBestPass() throws IOException {
+        // with random labels and a large learning rate, the model wanders and the holdout score goes up and down
+        String options = "categories = 0 1, features=4, seed=11, holdout=0.3, learningRate=10, decayExponent=0, lambda=0";
+        LogisticRegression lr = new LogisticRegression(options + ", minImprovement=-1000, iterations=20");
+        lr.accumulate(noisyData(1000));
+        lr.getValue();
+
+        List<ValidationStats> passes = lr.getValidation();
+        assertEquals(20, passes.size());
+        int best = 0;
+        boolean worse = false;
+        for (int i = 1; i < passes.size(); i++) {
+            if (passes.get(i).logLikelihood() > passes.get(best).logLikelihood()) {
+                best = i;
+            }
+            worse |= passes.get(i).logLikelihood() < passes.get(i - 1).logLikelihood();
+        }
+        assertTrue("validation should get worse at some point", worse);
+        assertTrue(best < passes.size() - 1);
+
+        // the result is the model as it was after the best pass
+        LogisticRegression reference = new LogisticRegression(options + ", minImprovement=-1000, iterations=" + (best + 1));
+        reference.accumulate(noisyData(1000));
+        reference.getValue();
+        assertEquals(best + 1, reference.getValidation().size());
+        assertEquals(0, lr.getModel().getBeta().viewRow(0).minus(reference.getModel().getBeta().viewRow(0)).norm(1), 1e-12);
+
+        // likewise when training stops because validation got worse
+        LogisticRegression stopped = new LogisticRegression(options + ", iterations=20");
+        stopped.accumulate(noisyData(1000));
+        stopped.getValue();
+        int n = stopped.getValidation().size();
+        assertTrue(n > 1 && n < 20);
+        reference = new LogisticRegression(options + ", minImprovement=-1000, iterations=" + (n - 1));
+        reference.accumulate(noisyData(1000));
+        reference.getValue();
+        assertEquals(0, stopped.getModel().getBeta().viewRow(0).minus(reference.getModel().getBeta().viewRow(0)).norm(1), 1e-12);
+    }
+
+    @Test
+    public void testProgressiveValidation() throws IOException {
+        String[] configurations = {
+                "categories = 0 1, features=4, iterations=3, seed=5, progressive=true, minImprovement=-1",
+                "categories = 0 1, features=4, iterations=3, seed=5, progressive=true, minImprovement=-1, threads=2",
+                "categories = 0 1, features=4, seed=5, progressive=true, streaming=true"
+        };
+        for (String options : configurations) {
+            LogisticRegression lr = new LogisticRegression(options);
+            lr.accumulate(separableData(1000));
+            lr.getValue();
+
+            List<ValidationStats> passes = lr.getValidation();
+            assertEquals(options, lr.getIterations(), passes.size());
+            for (ValidationStats pass : passes) {
+                assertEquals(options, 1000, pass.examples());
+            }
+            assertTrue(options, passes.get(passes.size() - 1).auc() > 0.9);
+        }
+
+        try {
+            new LogisticRegression("categories = 0 1, features=4, progressive=true, holdout=0.1");
+            fail("Should have failed");
+        } catch (BadClassifierSpecException e) {
+            assertTrue(e.getMessage().startsWith("Can't use both"));
+        }
+    }
+
+    @Test
+    public void testAdaptiveTraining() throws IOException {
+        LogisticRegression lr = new LogisticRegression("categories = 0 1, features=4, iterations=3, adaptive=true, population=4, threads=2, holdout=0.2, minImprovement=-1");
+        assertEquals(Runtime.getRuntime().availableProcessors(), new LogisticRegression("categories = 0 1, features=4, adaptive=true").getThreads());
+        assertTrue(lr.isAdaptive());
+        assertEquals(4, lr.getPopulation());
+        lr.accumulate(separableData(2000));
+        DataByteArray r = lr.getValue();
+
+        // the best member of the population is returned as an ordinary classifier
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(r.get()));
+        Classifier c = PolymorphicWritable.read(in, Classifier.class);
+        in.close();
+        assertEquals(4, c.getModel().numFeatures());
+        assertEquals(lr.getModel().getLambda(), c.getModel().getLambda(), 0);
+
+        List<ValidationStats> passes = lr.getValidation();
+        assertEquals(3, passes.size());
+        assertTrue(passes.get(2).accuracy() > 0.9);
+        assertTrue(passes.get(2).auc() > 0.95);
+
+        String[] conflicts = {
+                "categories = 0 1, features=4, adaptive=true, lambda=1e-4",
+                "categories = 0 1, features=4, adaptive=true, streaming=true",
+                "categories = 0 1, features=4, adaptive=true, progressive=true",
+                "categories = 0 1, features=4, adaptive=true, population=1",
+                "categories = 0 1, features=4, population=10"
+        };
+        for (String options : conflicts) {
+            try {
+                new LogisticRegression(options);
+                fail("Should have failed: " + options);
+            } catch (BadClassifierSpecException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testCrossValidation() throws IOException {
+        String[] configurations = {
+                "categories = 0 1, features=4, iterations=3, seed=7, folds=5",
+                "categories = 0 1, features=4, iterations=3, seed=7, folds=5, inMemory=false, shuffle=block, blockSize=100",
+                "categories = 0 1, features=4, iterations=3, seed=7, folds=5, threads=2, holdout=0.1"
+        };
+        for (String options : configurations) {
+            LogisticRegression lr = new LogisticRegression(options);
+            assertEquals(5, lr.getFolds());
+            lr.accumulate(separableData(1000));
+            lr.getValue();
+
+            List<ValidationStats> folds = lr.getFoldValidation();
+            assertEquals(options, 5, folds.size());
+            long total = 0;
+            for (ValidationStats fold : folds) {
+                // each fold gets roughly a fifth of the examples
+                assertTrue(options, fold.examples() > 120 && fold.examples() < 280);
+                assertTrue(options, fold.accuracy() > 0.9);
+                total += fold.examples();
+            }
+            assertTrue(options, options.contains("holdout") ? total < 1000 : total == 1000);
+        }
+
+        // folds are the same from one run to the next
+        LogisticRegression a = new LogisticRegression("categories = 0 1, features=4, seed=7, folds=3");
+        LogisticRegression b = new LogisticRegression("categories = 0 1, features=4, seed=7, folds=3");
+        a.accumulate(separableData(500));
+        b.accumulate(separableData(500));
+        a.getValue();
+        b.getValue();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(a.getFoldValidation().get(i).examples(), b.getFoldValidation().get(i).examples());
+            assertEquals(a.getFoldValidation().get(i).logLikelihood(), b.getFoldValidation().get(i).logLikelihood(), 0);
+        }
+
+        try {
+            new LogisticRegression("categories = 0 1, features=4, folds=1");
+            fail("Should have failed");
+        } catch (BadClassifierSpecException e) {
+            assertTrue(e.getMessage().startsWith("Must have at least two folds"));
+        }
+        try {
+            new LogisticRegression("categories = 0 1, features=4, folds=5, streaming=true");
+            fail("Should have failed");
+        } catch (BadClassifierSpecException e) {
+            assertTrue(e.getMessage().startsWith("Cross-validation folds can't be combined"));
+        }
+    }
+
+    @Test
+    public void testSparseEngine() throws IOException {
+        checkTraining("categories = 0 1, features=4, inMemory=false, iterations=5, engine=sparse");
+
+        // without regularization to catch up at the end, the engines train the same model
+        LogisticRegression sparse = new LogisticRegression("categories = 0 1, features=4, seed=9, iterations=3, lambda=0, engine=sparse, holdout=0.1, minImprovement=-1");
+        LogisticRegression mahout = new LogisticRegression("categories = 0 1, features=4, seed=9, iterations=3, lambda=0, holdout=0.1, minImprovement=-1");
+        sparse.accumulate(separableData(1000));
+        mahout.accumulate(separableData(1000));
+        sparse.getValue();
+        mahout.getValue();
+        Vector v = new DenseVector(4).assign(sparse.getModel().getBeta().viewRow(0));
+        assertEquals(0, v.minus(mahout.getModel().getBeta().viewRow(0)).norm(1), 1e-9);
+        assertEquals(mahout.getValidation().get(2).logLikelihood(), sparse.getValidation().get(2).logLikelihood(), 1e-9);
+
+        try {
+            new LogisticRegression("categories = 0 1, features=4, engine=sparse, threads=2");
+            fail("Should have failed");
+        } catch (BadClassifierSpecException e) {
+            assertTrue(e.getMessage().startsWith("The sparse engine can't be combined"));
+        }
+        try {
+            new LogisticRegression("categories = 0 1, features=4, engine=dense");
+            fail("Should have failed");
+        } catch (BadClassifierSpecException e) {
+            assertEquals("Unknown training engine: dense", e.getMessage());
+        }
+    }
+
+    private Tuple separableData(int n) throws IOException {
+        Random gen = new Random(2);
+        Vector direction = new DenseVector(new double[]{gen.nextGaussian(), gen.nextGaussian(), gen.nextGaussian(), gen.nextGaussian()});
+        DataBag examples = new DefaultDataBag();
+        for (int i = 0; i < n; i++) {
+            Vector v = new DenseVector(new double[]{gen.nextGaussian(), gen.nextGaussian(), gen.nextGaussian(), gen.nextGaussian()});
+            Tuple x = new DefaultTuple();
+            x.append(v.dot(direction) > 0 ? "1" : "0");
+            x.append(PigVector.toBytes(v));
+            examples.add(x);
+        }
+        Tuple data = new DefaultTuple();
+        data.append(examples);
+        return data;
+    }
+
+    private Tuple noisyData(int n) throws IOException {
+        Random gen = new Random(5);
+        DataBag examples = new DefaultDataBag();
+        for (int i = 0; i < n; i++) {
+            Vector v = new DenseVector(new double[]{1, gen.nextGaussian(), 0, 0});
+            Tuple x = new DefaultTuple();
+            x.append(gen.nextBoolean() ? "1" : "0");
+            x.append(PigVector.toBytes(v));
+            examples.add(x);
+        }
+        Tuple data = new DefaultTuple();
+        data.append(examples);
+        return data;
+    }
+
+    private Vector checkTraining(String options) throws IOException {
         DoubleFunction randomValue = new DoubleFunction() {
             private Random gen = new Random(1);
 
@@ -100,8 +449,8 @@ public class LogisticRegressionTest {
         Tuple data = new DefaultTuple();
         data.append(examples);
 
-        // train model.  training from tmp file allows absolute repeatability
-        LogisticRegression lr = new LogisticRegression("categories = 0 1, features=4, inMemory=false, iterations=5");
+        // train model
+        LogisticRegression lr = new LogisticRegression(options);
         lr.accumulate(data);
         DataByteArray r = lr.getValue();
         DataInputStream in = new DataInputStream(new ByteArrayInputStream(r.get()));
@@ -126,5 +475,6 @@ public class LogisticRegressionTest {
             score = score * actual + (1 - score) * (1 - actual);
             assertTrue(score > 0.4);
         }
+        return v;
     }
 }
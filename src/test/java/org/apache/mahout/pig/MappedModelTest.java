@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.mahout.classifier.sgd.L1;
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.classifier.sgd.PolymorphicWritable;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MappedModelTest {
+    private static final List<String> CATEGORIES = ImmutableList.of("alpha", "beta", "gamma", "delta");
+
+    @Test
+    public void testDouble() throws IOException {
+        check(false, 1e-12);
+    }
+
+    @Test
+    public void testFloat() throws IOException {
+        check(true, 1e-5);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAModel() throws IOException {
+        File f = File.createTempFile("model", "scoring");
+        f.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(new byte[100]);
+        out.close();
+        MappedModel.open(f);
+    }
+
+    private void check(boolean floatValues, double tolerance) throws IOException {
+        Random gen = new Random(3);
+        // trained but not closed so that regularization is still owed
+        OnlineLogisticRegression model = new OnlineLogisticRegression(4, 1000, new L1()).lambda(1e-2);
+        for (int i = 0; i < 2000; i++) {
+            model.train(gen.nextInt(4), randomVector(gen));
+        }
+        Classifier classifier = new Classifier(CATEGORIES, model);
+
+        File f = File.createTempFile("model", "scoring");
+        f.deleteOnExit();
+        MappedModel.write(classifier, f, floatValues);
+
+        LinearScorer heap = new LinearScorer(classifier);
+        LinearScorer mapped = MappedModel.open(f);
+        assertEquals(CATEGORIES, mapped.getCategories());
+        assertEquals(4, mapped.numCategories());
+        assertEquals(1000, mapped.numFeatures());
+        assertEquals(0, mapped.footprint());
+
+        double[] expected = new double[4];
+        double[] actual = new double[4];
+        PigVector.Accessor accessor = new PigVector.Accessor();
+        OnlineLogisticRegression reference = copy(model);
+        for (int i = 0; i < 100; i++) {
+            Vector v = randomVector(gen);
+            accessor.wrap(PigVector.toBytes(v));
+            int best = heap.score(accessor, expected);
+            assertEquals(best, mapped.score(accessor, actual));
+            Vector p = reference.classifyFull(v);
+            for (int k = 0; k < 4; k++) {
+                assertEquals(expected[k], actual[k], tolerance);
+                assertEquals(p.get(k), actual[k], tolerance);
+            }
+        }
+    }
+
+    private Vector randomVector(Random gen) {
+        Vector v = new RandomAccessSparseVector(1000);
+        for (int k = 0; k < 20; k++) {
+            v.set(gen.nextInt(1000), gen.nextGaussian());
+        }
+        return v;
+    }
+
+    /**
+     * Returns a copy of a model made by serializing it, as a model would be read for scoring.
+     */
+    private OnlineLogisticRegression copy(OnlineLogisticRegression model) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        PolymorphicWritable.write(out, model);
+        out.close();
+        return PolymorphicWritable.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), OnlineLogisticRegression.class);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.apache.mahout.classifier.sgd.L1;
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ModelCacheTest {
+    // each model has 2 x 100 coefficients
+    private static final long MODEL_BYTES = 1600;
+
+    @Test
+    public void testSharing() throws IOException {
+        ModelCache cache = new ModelCache(10 * MODEL_BYTES);
+        CountingLoader loader = new CountingLoader();
+
+        ModelCache.Lease a = cache.acquire("a", loader);
+        ModelCache.Lease b = cache.acquire("a", loader);
+        assertSame(a.model(), b.model());
+        assertEquals(1, loader.count.get());
+        assertEquals(MODEL_BYTES, cache.size());
+
+        a.close();
+        b.close();
+        // still cached because we are under budget
+        ModelCache.Lease c = cache.acquire("a", loader);
+        assertEquals(1, loader.count.get());
+        c.close();
+
+        cache.acquire("b", loader).close();
+        assertEquals(2, loader.count.get());
+        assertEquals(2, cache.models());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        ModelCache cache = new ModelCache(2 * MODEL_BYTES);
+        CountingLoader loader = new CountingLoader();
+
+        ModelCache.Lease a = cache.acquire("a", loader);
+        cache.acquire("b", loader).close();
+        cache.acquire("c", loader).close();
+        cache.acquire("d", loader).close();
+
+        // a is leased so it stays, only the most recent of the others fits
+        assertEquals(2, cache.models());
+        assertEquals(2 * MODEL_BYTES, cache.size());
+        cache.acquire("a", loader).close();
+        cache.acquire("d", loader).close();
+        assertEquals(4, loader.count.get());
+
+        cache.acquire("b", loader).close();
+        assertEquals(5, loader.count.get());
+
+        // now a can go
+        a.close();
+        cache.setBudget(MODEL_BYTES);
+        assertEquals(1, cache.models());
+        cache.acquire("b", loader).close();
+        assertEquals(5, loader.count.get());
+    }
+
+    @Test
+    public void testConcurrentLoad() throws Exception {
+        final ModelCache cache = new ModelCache(10 * MODEL_BYTES);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final AtomicInteger count = new AtomicInteger();
+        final Callable<LinearScorer> slowLoader = new Callable<LinearScorer>() {
+            public LinearScorer call() throws Exception {
+                count.incrementAndGet();
+                started.countDown();
+                assertTrue(proceed.await(10, TimeUnit.SECONDS));
+                return model();
+            }
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<ModelCache.Lease>> leases = Lists.newArrayList();
+            for (int i = 0; i < 4; i++) {
+                leases.add(pool.submit(new Callable<ModelCache.Lease>() {
+                    public ModelCache.Lease call() throws Exception {
+                        return cache.acquire("a", slowLoader);
+                    }
+                }));
+            }
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            proceed.countDown();
+
+            LinearScorer model = null;
+            for (Future<ModelCache.Lease> lease : leases) {
+                if (model == null) {
+                    model = lease.get().model();
+                }
+                assertSame(model, lease.get().model());
+            }
+            assertEquals(1, count.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedLoad() throws IOException {
+        ModelCache cache = new ModelCache(10 * MODEL_BYTES);
+        try {
+            cache.acquire("a", new Callable<LinearScorer>() {
+                public LinearScorer call() throws Exception {
+                    throw new IOException("no such model");
+                }
+            });
+            fail("Should have failed");
+        } catch (IOException e) {
+            assertEquals("no such model", e.getMessage());
+        }
+        assertEquals(0, cache.models());
+
+        CountingLoader loader = new CountingLoader();
+        cache.acquire("a", loader).close();
+        assertEquals(1, loader.count.get());
+    }
+
+    private static LinearScorer model() {
+        return new LinearScorer(new Classifier(ImmutableList.of("a", "b", "c"), new OnlineLogisticRegression(3, 100, new L1())));
+    }
+
+    private static class CountingLoader implements Callable<LinearScorer> {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public LinearScorer call() throws Exception {
+            count.incrementAndGet();
+            return model();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ModelIndexTest {
+    @Test
+    public void testRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ModelIndex index = new ModelIndex(bytes);
+        index.add("a", 128);
+        index.add("segment-\u00e9", 1L << 40);
+        index.add("a", 5000);
+        index.close();
+
+        Map<String, Long> r = ModelIndex.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(2, r.size());
+        assertEquals(128L, r.get("a").longValue());
+        assertEquals(1L << 40, r.get("segment-\u00e9").longValue());
+        assertNull(r.get("b"));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new ModelIndex(bytes).close();
+        assertTrue(ModelIndex.read(new ByteArrayInputStream(bytes.toByteArray())).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAnIndex() throws IOException {
+        ModelIndex.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5}));
+    }
+
+    @Test
+    public void testIndexName() {
+        assertEquals("_part-r-00003.index", ModelIndex.indexFor(new Path("/tmp/models/part-r-00003")).getName());
+    }
+}
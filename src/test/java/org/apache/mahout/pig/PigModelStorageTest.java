@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.mahout.classifier.sgd.L1;
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PigModelStorageTest {
+    @Test
+    public void testIndexedLookupWithBlockCompressionDefault() throws IOException, InterruptedException {
+        // a cluster default of block compression must not make models unreachable through the index
+        Configuration conf = new Configuration();
+        conf.set("io.seqfile.compression.type", "BLOCK");
+        FileSystem fs = FileSystem.getLocal(conf);
+
+        File dir = Files.createTempDirectory("models").toFile();
+        dir.deleteOnExit();
+        Path file = new Path(new File(dir, "part-r-00000").getAbsolutePath());
+
+        RecordWriter<Text, Classifier> writer = PigModelStorage.IndexedModelOutputFormat.writer(fs, conf, file);
+        for (int i = 0; i < 50; i++) {
+            OnlineLogisticRegression model = new OnlineLogisticRegression(2, 10, new L1());
+            model.getBeta().set(0, 0, i);
+            writer.write(new Text("m" + i), new Classifier(ImmutableList.of("a", "b"), model));
+        }
+        writer.close(null);
+
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs, file, conf);
+        assertFalse(reader.isCompressed());
+        reader.close();
+        assertTrue(fs.exists(ModelIndex.indexFor(file)));
+
+        for (int i : new int[]{37, 0, 49}) {
+            Map<String, String> options = Maps.newHashMap();
+            options.put("sequence", file.toString());
+            options.put("key", "m" + i);
+            Classifier c = new ModelSource(options).load(conf);
+            assertEquals(i, c.getModel().getBeta().get(0, 0), 0);
+        }
+
+        // the index was read once for all of those lookups
+        Map<String, String> options = Maps.newHashMap();
+        options.put("sequence", file.toString());
+        options.put("key", "m1");
+        ModelSource.Catalog catalog = new ModelSource(options).catalog(fs);
+        options.put("sequence", file.toString());
+        assertSame(catalog, ModelSource.repository(options).withKey("m2").catalog(fs));
+    }
+}
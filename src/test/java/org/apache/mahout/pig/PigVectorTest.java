@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.pig.data.DataByteArray;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PigVectorTest {
+    @Test
+    public void testSparseRoundTrip() {
+        Vector v = randomSparse(new Random(1), 1000000, 200);
+        DataByteArray bytes = PigVector.toBytes(v);
+        assertEquals(0, v.minus(PigVector.fromBytes(bytes)).norm(1), 0);
+
+        // delta encoded indices should beat VectorWritable handily
+        assertTrue(bytes.size() < PigVector.toWritableBytes(v).size());
+    }
+
+    @Test
+    public void testDenseRoundTrip() {
+        Vector v = new DenseVector(new double[]{1, 0, -2.5, Double.NaN, 7});
+        Vector r = PigVector.fromBytes(PigVector.toBytes(v));
+        assertTrue(r.isDense());
+        assertEquals(5, r.size());
+        assertEquals(1, r.get(0), 0);
+        assertEquals(0, r.get(1), 0);
+        assertEquals(-2.5, r.get(2), 0);
+        assertTrue(Double.isNaN(r.get(3)));
+        assertEquals(7, r.get(4), 0);
+    }
+
+    @Test
+    public void testFloatValues() {
+        Vector v = randomSparse(new Random(2), 10000, 50);
+        DataByteArray full = PigVector.toBytes(v);
+        DataByteArray compact = PigVector.toBytes(v, true);
+        assertTrue(compact.size() < full.size());
+
+        Vector r = PigVector.fromBytes(compact);
+        assertEquals(v.getNumNondefaultElements(), r.getNumNondefaultElements());
+        assertEquals(0, v.minus(r).norm(Double.POSITIVE_INFINITY), 1e-6);
+    }
+
+    @Test
+    public void testLegacyBytes() {
+        Vector v = randomSparse(new Random(3), 1000, 20);
+        DataByteArray legacy = PigVector.toWritableBytes(v);
+        assertEquals(0, v.minus(PigVector.fromBytes(legacy)).norm(1), 0);
+
+        double[] weights = new double[1000];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = i;
+        }
+        assertEquals(v.dot(new DenseVector(weights)), new PigVector.Accessor().wrap(legacy).dot(weights), 1e-9);
+    }
+
+    @Test
+    public void testAccessor() {
+        Random gen = new Random(4);
+        double[] weights = new double[5000];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = gen.nextGaussian();
+        }
+
+        PigVector.Accessor accessor = new PigVector.Accessor();
+        for (int k = 0; k < 10; k++) {
+            Vector v = randomSparse(gen, weights.length, 100);
+            accessor.wrap(PigVector.toBytes(v));
+            assertEquals(weights.length, accessor.size());
+            assertEquals(v.getNumNondefaultElements(), accessor.getNumNonZeroElements());
+
+            int last = -1;
+            int n = 0;
+            while (accessor.next()) {
+                assertTrue(accessor.index() > last);
+                assertEquals(v.get(accessor.index()), accessor.value(), 0);
+                last = accessor.index();
+                n++;
+            }
+            assertEquals(v.getNumNondefaultElements(), n);
+            assertEquals(v.dot(new DenseVector(weights)), accessor.dot(weights), 1e-9);
+        }
+    }
+
+    private Vector randomSparse(Random gen, int size, int nonZeros) {
+        Vector v = new RandomAccessSparseVector(size);
+        while (v.getNumNondefaultElements() < nonZeros) {
+            v.set(gen.nextInt(size), gen.nextGaussian());
+        }
+        return v;
+    }
+}
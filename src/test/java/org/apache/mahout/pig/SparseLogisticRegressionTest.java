@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import org.apache.mahout.classifier.sgd.L1;
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SparseLogisticRegressionTest {
+    @Test
+    public void testMatchesMahout() {
+        // with two categories the lazy regularization is the same as Mahout's
+        checkAgainstMahout(2, 1e-3);
+        // with more, Mahout catches up the prior differently so compare without one
+        checkAgainstMahout(3, 0);
+    }
+
+    @Test
+    public void testExport() {
+        Random gen = new Random(3);
+        SparseLogisticRegression sparse = new SparseLogisticRegression(3, 50).lambda(1e-3).learningRate(0.5);
+        for (int i = 0; i < 2000; i++) {
+            Vector v = example(gen, 50);
+            sparse.train(gen.nextInt(3), v);
+        }
+
+        OnlineLogisticRegression model = new OnlineLogisticRegression(3, 50, new L1());
+        sparse.exportTo(model);
+        assertEquals(1e-3, model.getLambda(), 0);
+
+        // once regularization is caught up, both give the same scores
+        for (int i = 0; i < 100; i++) {
+            Vector v = example(gen, 50);
+            assertEquals(0, sparse.classifyFull(v).minus(model.classifyFull(v)).norm(1), 1e-12);
+        }
+    }
+
+    @Test
+    public void testScoringCatchesUp() {
+        Random gen = new Random(5);
+        SparseLogisticRegression sparse = new SparseLogisticRegression(2, 50).lambda(1e-2);
+        for (int i = 0; i < 2000; i++) {
+            sparse.train(gen.nextInt(2), example(gen, 50));
+        }
+
+        // the exported model has had all of its regularization applied
+        SparseLogisticRegression copy = new SparseLogisticRegression(2, 50);
+        copy.copyFrom(sparse);
+        OnlineLogisticRegression model = new OnlineLogisticRegression(2, 50, new L1());
+        copy.exportTo(model);
+        for (int i = 0; i < 100; i++) {
+            Vector v = example(gen, 50);
+            assertEquals(0, sparse.classifyFull(v).minus(model.classifyFull(v)).norm(1), 1e-12);
+        }
+    }
+
+    @Test
+    public void testLearns() {
+        Random gen = new Random(4);
+        Vector direction = new DenseVector(1000);
+        for (int j = 0; j < 1000; j++) {
+            direction.set(j, gen.nextGaussian());
+        }
+        SparseLogisticRegression sparse = new SparseLogisticRegression(2, 1000);
+        ValidationStats stats = new ValidationStats(2);
+        for (int i = 0; i < 20000; i++) {
+            Vector v = example(gen, 1000);
+            int target = v.dot(direction) > 0 ? 1 : 0;
+            if (i >= 15000) {
+                stats.add(target, sparse.classifyFull(v));
+            }
+            sparse.train(target, v);
+        }
+        assertEquals(20000, sparse.getStep());
+        assertTrue(stats.auc() > 0.9);
+    }
+
+    private void checkAgainstMahout(int categories, double lambda) {
+        Random gen = new Random(categories);
+        SparseLogisticRegression sparse = new SparseLogisticRegression(categories, 40)
+                .lambda(lambda).learningRate(0.7).decayExponent(0.4).stepOffset(20);
+        OnlineLogisticRegression mahout = new OnlineLogisticRegression(categories, 40, new L1())
+                .lambda(lambda).learningRate(0.7).decayExponent(0.4).stepOffset(20).alpha(1 - 1e-3);
+
+        for (int i = 0; i < 3000; i++) {
+            Vector v = example(gen, 40);
+            int target = gen.nextInt(categories);
+            sparse.train(target, v);
+            mahout.train(target, v);
+        }
+        assertEquals(mahout.currentLearningRate(), sparse.currentLearningRate(), 1e-15);
+
+        for (int i = 0; i < 100; i++) {
+            Vector v = example(gen, 40);
+            assertEquals(0, sparse.classifyFull(v).minus(mahout.classifyFull(v)).norm(1), 1e-9);
+        }
+    }
+
+    /**
+     * Returns a sparse vector with a few non-zero elements, some of which belong to the first few
+     * features so that some features are seen often and others rarely.
+     */
+    private Vector example(Random gen, int features) {
+        Vector v = new RandomAccessSparseVector(features);
+        for (int k = 0; k < 5; k++) {
+            int j = k < 2 ? gen.nextInt(5) : gen.nextInt(features);
+            v.set(j, gen.nextGaussian());
+        }
+        return v;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UdfMetricsTest {
+    @Test
+    public void testBuckets() {
+        assertEquals(0, UdfMetrics.bucket(0));
+        assertEquals(0, UdfMetrics.bucket(10));
+        assertEquals(1, UdfMetrics.bucket(11));
+        assertEquals(1, UdfMetrics.bucket(100));
+        assertEquals(2, UdfMetrics.bucket(101));
+        assertEquals(4, UdfMetrics.bucket(100000));
+        assertEquals(5, UdfMetrics.bucket(100001));
+        assertEquals(5, UdfMetrics.bucket(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testDisabledOutsideOfJob() {
+        UdfMetrics metrics = UdfMetrics.forUdf("Test");
+        assertFalse(metrics.isEnabled());
+        metrics.startRow();
+        metrics.endRow(10, 100);
+        metrics.phase("pass", 1000000);
+        metrics.flush();
+    }
+
+    @Test
+    public void testWithoutReporter() {
+        // counters can't be found outside of a task, but counting must still work
+        UdfMetrics metrics = new UdfMetrics("Mahout Test", 3, true);
+        assertTrue(metrics.isEnabled());
+        for (int i = 0; i < 10000; i++) {
+            metrics.startRow();
+            metrics.endRow(i, 8 * i);
+        }
+        metrics.count("examples", 5);
+        metrics.phase("training pass", 5000000);
+        metrics.flush();
+    }
+}
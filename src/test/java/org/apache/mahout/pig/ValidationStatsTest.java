@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig;
+
+import org.apache.mahout.math.DenseVector;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ValidationStatsTest {
+    @Test
+    public void testPerfectAndUseless() {
+        ValidationStats perfect = new ValidationStats(2);
+        ValidationStats constant = new ValidationStats(2);
+        Random gen = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            int target = gen.nextInt(2);
+            double p = target == 1 ? 0.6 + 0.3 * gen.nextDouble() : 0.1 + 0.3 * gen.nextDouble();
+            perfect.add(target, new DenseVector(new double[]{1 - p, p}));
+            constant.add(target, new DenseVector(new double[]{0.5, 0.5}));
+        }
+        assertEquals(1000, perfect.examples());
+        assertEquals(1.0, perfect.auc(), 0);
+        assertEquals(1.0, perfect.accuracy(), 0);
+        assertEquals(0.5, constant.auc(), 0);
+        assertEquals(Math.log(0.5), constant.logLikelihood(), 1e-12);
+    }
+
+    @Test
+    public void testAucMatchesRanking() {
+        // compare against counting correctly ordered pairs directly
+        Random gen = new Random(2);
+        double[] scores = new double[300];
+        int[] targets = new int[300];
+        ValidationStats stats = new ValidationStats(2);
+        for (int i = 0; i < scores.length; i++) {
+            targets[i] = gen.nextInt(2);
+            scores[i] = 1 / (1 + Math.exp(-(gen.nextGaussian() + targets[i])));
+            stats.add(targets[i], new DenseVector(new double[]{1 - scores[i], scores[i]}));
+        }
+        double pairs = 0;
+        double right = 0;
+        for (int i = 0; i < scores.length; i++) {
+            for (int j = 0; j < scores.length; j++) {
+                if (targets[i] == 1 && targets[j] == 0) {
+                    pairs++;
+                    right += scores[i] > scores[j] ? 1 : scores[i] == scores[j] ? 0.5 : 0;
+                }
+            }
+        }
+        assertEquals(right / pairs, stats.auc(), 2e-3);
+    }
+
+    @Test
+    public void testMultipleCategories() {
+        ValidationStats a = new ValidationStats(3);
+        ValidationStats b = new ValidationStats(3);
+        a.add(0, new DenseVector(new double[]{0.7, 0.2, 0.1}));
+        a.add(1, new DenseVector(new double[]{0.2, 0.5, 0.3}));
+        b.add(2, new DenseVector(new double[]{0.1, 0.1, 0.8}));
+        b.add(2, new DenseVector(new double[]{0.5, 0.3, 0.2}));
+        a.addAll(b);
+        assertEquals(4, a.examples());
+        assertEquals(0.75, a.accuracy(), 0);
+        assertTrue(a.auc() > 0.5 && a.auc() <= 1);
+        assertTrue(Double.isNaN(new ValidationStats(3).auc()));
+    }
+}
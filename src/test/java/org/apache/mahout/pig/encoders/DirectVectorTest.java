@@ -18,6 +18,7 @@ package org.apache.mahout.pig.encoders;
 
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.pig.PigVector;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.junit.Test;
@@ -41,6 +42,19 @@ public class DirectVectorTest {
         assertEquals(3.0, v.get(2), 0);
     }
 
+    @Test
+    public void testBytesAndFloats() throws IOException {
+        DirectVector dv = new DirectVector("a,b,c");
+        final Tuple input = TupleFactory.getInstance().newTuple();
+        input.append(new DataByteArray("-1.5e3"));
+        input.append(0.25f);
+        input.append("7");
+        Vector v = PigVector.fromBytes(dv.exec(input));
+        assertEquals(-1500.0, v.get(0), 0);
+        assertEquals(0.25, v.get(1), 0);
+        assertEquals(7.0, v.get(2), 0);
+    }
+
     @Test
     public void testWrongSize() throws IOException {
         DirectVector dv = new DirectVector("a,b,c");
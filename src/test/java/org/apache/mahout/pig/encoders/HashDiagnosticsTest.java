@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.encoders;
+
+import com.google.common.collect.Maps;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HashDiagnosticsTest {
+    @Test
+    public void testCollisions() throws IOException {
+        DataBag sample = sample(2000, 500);
+
+        // 500 words in 100 locations must collide a lot
+        Map<String, Tuple> small = report(new HashDiagnostics("100", "x + w", "x:numeric, w:word"), sample);
+        Tuple words = small.get("w");
+        assertEquals(2000L, words.get(1));
+        assertEquals(500L, words.get(2));
+        assertTrue((Long) words.get(3) <= 100);
+        assertTrue((Long) words.get(5) > 400);
+        assertEquals((Double) words.get(4), (Long) words.get(5), 50);
+        assertEquals(1.0, (Double) small.get("x").get(6), 0);
+
+        Tuple all = small.get("*");
+        assertEquals(501L, all.get(2));
+        assertTrue((Long) all.get(5) >= (Long) words.get(5));
+
+        // with plenty of room, collisions are rare and the recommended size is enough
+        Map<String, Tuple> large = report(new HashDiagnostics("1000000", "x + w", "x:numeric, w:word", "collisionRate=0.05"), sample);
+        words = large.get("w");
+        assertEquals((Long) words.get(2), (Long) words.get(3), 2);
+        assertTrue((Long) words.get(5) < 5);
+        assertTrue((Long) large.get("*").get(7) < 100000);
+        assertTrue((Long) large.get("*").get(7) > 5000);
+    }
+
+    @Test
+    public void testInteractions() throws IOException {
+        DataBag sample = sample(200, 10);
+        Map<String, Tuple> r = report(new HashDiagnostics("100000", "w + x*w", "x:numeric, w:word"), sample);
+        assertEquals(3, r.size());
+        Tuple interaction = r.get("x:w");
+        if (interaction == null) {
+            interaction = r.get("w:x");
+        }
+        assertEquals(10L, interaction.get(2));
+    }
+
+    @Test
+    public void testEncodeVectorOptions() throws IOException {
+        // options meant for EncodeVector can be passed along unchanged
+        String options = "maxInteractions=100, threads=4, parallelThreshold=10";
+        new EncodeVector("100", "x + w", "x:numeric, w:word", options);
+        Map<String, Tuple> r = report(new HashDiagnostics("100", "x + w", "x:numeric, w:word", options + ", collisionRate=0.05"), sample(20, 5));
+        assertEquals(5L, r.get("w").get(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadRate() {
+        new HashDiagnostics("100", "x", "x:numeric", "collisionRate=2");
+    }
+
+    private DataBag sample(int rows, int vocabulary) throws IOException {
+        Random gen = new Random(1);
+        DataBag r = BagFactory.getInstance().newDefaultBag();
+        for (int i = 0; i < rows; i++) {
+            Tuple row = TupleFactory.getInstance().newTuple(2);
+            row.set(0, gen.nextGaussian());
+            // make sure every word appears
+            row.set(1, "word-" + (i < vocabulary ? i : gen.nextInt(vocabulary)));
+            r.add(row);
+        }
+        return r;
+    }
+
+    private Map<String, Tuple> report(HashDiagnostics diagnostics, DataBag sample) throws IOException {
+        Map<String, Tuple> r = Maps.newHashMap();
+        for (Tuple t : diagnostics.exec(TupleFactory.getInstance().newTuple(sample))) {
+            r.put((String) t.get(0), t);
+        }
+        return r;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.encoders;
+
+import org.apache.mahout.math.MurmurHash;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class MurmurHash64Test {
+    @Test
+    public void testSameAsMahout() {
+        Random gen = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            byte[] data = new byte[gen.nextInt(40) + 3];
+            gen.nextBytes(data);
+            int offset = gen.nextInt(3);
+            int length = gen.nextInt(data.length - offset + 1);
+            int seed = gen.nextInt();
+            assertEquals(MurmurHash.hash64A(ByteBuffer.wrap(data, offset, length), seed),
+                    MurmurHash64.hash64A(data, offset, length, seed));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Ted Dunning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.pig.encoders;
+
+import com.google.common.base.Charsets;
+import org.apache.pig.data.DataByteArray;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NumbersTest {
+    @Test
+    public void testSpecialCases() {
+        String[] cases = {
+                "0", "-0", "+0", "0.0", "-0.0", "1", "-1", "1.", ".5", "-.5", "3.14159", " 42 ", "\t7\n",
+                "1e10", "1E-10", "1e+3", "2.5e22", "2.5e-22", "1e23", "1e-23", "1e308", "1e-320", "4.9e-324",
+                "123456789012345", "1234567890123456", "12345678901234567890", "0.1234567890123456789",
+                "000000000000000000001", "9007199254740993", "1.7976931348623157e308", "1e400",
+                "NaN", "-Infinity", "Infinity", "1d", "2.5f", "0x1p3"
+        };
+        for (String s : cases) {
+            check(s);
+        }
+    }
+
+    @Test
+    public void testRandomDecimals() {
+        Random gen = new Random(3);
+        for (int i = 0; i < 100000; i++) {
+            StringBuilder s = new StringBuilder();
+            if (gen.nextBoolean()) {
+                s.append('-');
+            }
+            for (int j = gen.nextInt(12); j >= 0; j--) {
+                s.append((char) ('0' + gen.nextInt(10)));
+            }
+            if (gen.nextBoolean()) {
+                s.append('.');
+                for (int j = gen.nextInt(12); j > 0; j--) {
+                    s.append((char) ('0' + gen.nextInt(10)));
+                }
+            }
+            if (gen.nextInt(4) == 0) {
+                s.append('e').append(gen.nextInt(60) - 30);
+            }
+            check(s.toString());
+        }
+
+        // the usual string forms of doubles and floats
+        for (int i = 0; i < 100000; i++) {
+            check(Double.toString(gen.nextGaussian() * Math.pow(10, gen.nextInt(40) - 20)));
+            check(Float.toString((float) gen.nextGaussian()));
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testNotANumber() {
+        byte[] bytes = "12abc".getBytes(Charsets.UTF_8);
+        Numbers.parseDouble(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testPigTypes() {
+        assertEquals(3.0, Numbers.toDouble(3), 0);
+        assertEquals(3.0, Numbers.toDouble(3L), 0);
+        assertEquals(0.1f, Numbers.toDouble(0.1f), 0);
+        assertEquals(0.1, Numbers.toDouble(0.1), 0);
+        assertEquals(-2.5, Numbers.toDouble("-2.5"), 0);
+        assertEquals(-2.5, Numbers.toDouble(new DataByteArray("-2.5")), 0);
+
+        // only the slice of the array that is given is parsed
+        byte[] bytes = "xx17.25yy".getBytes(Charsets.UTF_8);
+        assertEquals(17.25, Numbers.parseDouble(bytes, 2, 5), 0);
+    }
+
+    private static void check(String s) {
+        byte[] bytes = s.getBytes(Charsets.UTF_8);
+        double expected = Double.parseDouble(s);
+        double actual = Numbers.parseDouble(bytes, 0, bytes.length);
+        assertEquals(s, Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(actual));
+    }
+}